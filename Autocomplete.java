@@ -0,0 +1,385 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Type-ahead completions for titles, artists and lyrics terms. Instead of
+ * running a whole search on every keystroke and copying every match, it
+ * returns the first n distinct completions of a prefix.
+ *
+ * Each field has its own dictionary: the distinct keys in sorted order,
+ * the text to show for each, and how popular each is. For titles and
+ * artists that is the number of songs with that key, for terms the number
+ * of songs whose lyrics have it. A PrefixTrie finds the range of keys for
+ * a prefix. Completions in alphabetical order are the start of the range.
+ * For the most popular completions a tree of the largest count in each
+ * block of keys finds the largest in the range, then the largest on each
+ * side of it, and so on, so only about n log(keys) steps are taken however
+ * many keys match.
+ *
+ * A Session keeps the range of every prefix typed so far, so the next
+ * keystroke only narrows the last range by one character and a backspace
+ * goes back to a range it already has. complete keeps nothing between
+ * calls and finds the whole prefix in the trie each time, which is what
+ * SongSearchServer's /complete does, so HTTP type-ahead does not narrow the
+ * previous range.
+ *
+ * A field's dictionary is built by the first call that uses the field.
+ * After songs are added or removed it is built again on a background
+ * thread, and until the new one is ready completions come from the old
+ * one, so they can miss the latest songs for a moment but a keystroke
+ * never waits for a build.
+ *
+ * @author David Heywood
+ */
+public class Autocomplete {
+
+    /**
+     * what is completed
+     */
+    public enum Field {
+        TITLE, ARTIST, TERM
+    }
+
+    /**
+     * how completions are ranked
+     */
+    public enum Order {
+        ALPHABETICAL, POPULARITY
+    }
+
+    private final SongSearch songSearch;
+    private final AtomicReferenceArray<Completions> dictionaries =
+            new AtomicReferenceArray<Completions>(Field.values().length);
+    private final BackgroundRebuild[] builders = new BackgroundRebuild[Field.values().length];
+
+    /**
+     * @param songSearch the songs to complete from
+     */
+    public Autocomplete(SongSearch songSearch) {
+        this.songSearch = songSearch;
+        for (Field field : Field.values()) {
+            builders[field.ordinal()] = new BackgroundRebuild("autocomplete " + field.name().toLowerCase() + " builder",
+                    () -> rebuild(field));
+        }
+    }
+
+    /**
+     * complete a prefix without a Session, the prefix is found in the trie from its first char
+     *
+     * @param field
+     * @param prefix what has been typed, case is ignored
+     * @param n most completions to return
+     * @param order
+     * @return up to n completions, the title, artist or term as it should be shown
+     */
+    public String[] complete(Field field, String prefix, int n, Order order) {
+        Completions c = dictionary(field);
+        int[] range = c.trie.range(prefix.toLowerCase());
+        return c.top(range[0], range[1], n, order);
+    }
+
+    /**
+     * @param field
+     * @param n most completions for each keystroke
+     * @param order
+     * @return a session for one text box, for one thread at a time
+     */
+    public Session session(Field field, int n, Order order) {
+        return new Session(field, n, order);
+    }
+
+    // the field's dictionary, an older one while a new one is being built
+    private Completions dictionary(Field field) {
+        Completions c = dictionaries.get(field.ordinal());
+        if (c == null) {
+            return firstBuild(field);
+        }
+        if (c.version != songSearch.getVersion()) {
+            builders[field.ordinal()].request();
+        }
+        return c;
+    }
+
+    // there is no dictionary to use until the first one is built, so the thread that needs it builds it
+    private Completions firstBuild(Field field) {
+        synchronized (dictionaries) {
+            Completions c = dictionaries.get(field.ordinal());
+            if (c == null) {
+                c = build(field);
+                dictionaries.set(field.ordinal(), c);
+            }
+            return c;
+        }
+    }
+
+    // runs on the field's builder thread
+    private void rebuild(Field field) {
+        if (dictionaries.get(field.ordinal()).version != songSearch.getVersion()) {
+            dictionaries.set(field.ordinal(), build(field));
+        }
+    }
+
+    // the version is read before the songs, so a song changed in between is in the dictionary and it is built once
+    // more, it is never older than its version says
+    private Completions build(Field field) {
+        long version = songSearch.getVersion();
+        if (field == Field.TERM) {
+            LyricsIndex index = songSearch.getLyricsWordsSearch().getLyricsIndex();
+            String[] keys = new String[index.numTerms()];
+            int[] counts = new int[keys.length];
+            for (int t = 0; t < keys.length; t++) {
+                keys[t] = index.term(t);
+                counts[t] = index.docFreq(t);
+            }
+            return new Completions(keys, keys, counts, version);
+        }
+
+        // songs in title or artist order, songs with the same key are next to each other
+        boolean byTitle = field == Field.TITLE;
+        Song[] songs;
+        if (byTitle) { // the title list is changed in place, the artist array is replaced
+            Lock lock = songSearch.readLock();
+            lock.lock();
+            try {
+                version = songSearch.getVersion();
+                songs = songSearch.getTitleSearch().getSongsByTitle();
+            } finally {
+                lock.unlock();
+            }
+        } else {
+            songs = songSearch.getSongCollection().getAllSongs();
+        }
+        String[] keys = new String[songs.length];
+        String[] shown = new String[songs.length];
+        int[] counts = new int[songs.length];
+        int numKeys = 0;
+        for (Song song : songs) {
+            String key = byTitle ? song.getTitleKey() : song.getArtistKey();
+            if (numKeys > 0 && keys[numKeys - 1].equals(key)) {
+                counts[numKeys - 1]++;
+            } else {
+                keys[numKeys] = key;
+                shown[numKeys] = byTitle ? song.getTitle() : song.getArtist();
+                counts[numKeys] = 1;
+                numKeys++;
+            }
+        }
+        return new Completions(Arrays.copyOf(keys, numKeys), Arrays.copyOf(shown, numKeys),
+                Arrays.copyOf(counts, numKeys), version);
+    }
+
+    /**
+     * Completions for one text box. Each call to type gives the whole text
+     * typed so far, whether a character was added, removed or the text was
+     * changed some other way, and the ranges of the prefixes it shares with
+     * the last text are used again
+     */
+    public class Session {
+
+        private final Field field;
+        private final int n;
+        private final Order order;
+        private Completions dictionary;
+        private String typed = "";
+        private int[] from = new int[16]; // from[k] to to[k] is the range of keys that start with typed's first k chars
+        private int[] to = new int[16];
+
+        Session(Field field, int n, Order order) {
+            this.field = field;
+            this.n = n;
+            this.order = order;
+        }
+
+        /**
+         * @param text everything typed so far, case is ignored
+         * @return up to n completions
+         */
+        public String[] type(String text) {
+            text = text.toLowerCase();
+            Completions c = dictionary(field);
+            int known = 0; // prefixes whose ranges are already known
+            if (c == dictionary) {
+                int max = Math.min(text.length(), typed.length());
+                while (known < max && text.charAt(known) == typed.charAt(known)) {
+                    known++;
+                }
+            } else {
+                dictionary = c;
+                from[0] = 0;
+                to[0] = c.keys.length;
+            }
+            if (text.length() >= from.length) {
+                from = Arrays.copyOf(from, text.length() * 2);
+                to = Arrays.copyOf(to, text.length() * 2);
+            }
+            for (int k = known; k < text.length(); k++) {
+                c.narrow(from[k], to[k], k, text.charAt(k), from, to, k + 1);
+            }
+            typed = text;
+            return c.top(from[text.length()], to[text.length()], n, order);
+        }
+    }
+
+    /**
+     * One field's dictionary, never changed once it is built
+     */
+    private static final class Completions {
+
+        final String[] keys;    // distinct lower case keys, sorted
+        final String[] shown;   // shown[i] is how keys[i] is shown
+        final int[] counts;     // how popular each key is
+        final PrefixTrie trie;
+        final int[] maxTree;    // maxTree[i] is the most popular key below node i, the keys are the leaves
+        final long version;     // SongSearch version it was built from
+
+        Completions(String[] keys, String[] shown, int[] counts, long version) {
+            this.keys = keys;
+            this.shown = shown;
+            this.counts = counts;
+            this.version = version;
+            trie = new PrefixTrie(keys);
+            int m = keys.length;
+            maxTree = new int[2 * m];
+            for (int i = 0; i < m; i++) {
+                maxTree[m + i] = i;
+            }
+            for (int i = m - 1; i > 0; i--) {
+                maxTree[i] = better(maxTree[2 * i], maxTree[2 * i + 1]);
+            }
+        }
+
+        // the more popular of two keys, the first in order if they are equal
+        private int better(int a, int b) {
+            if (a < 0) {
+                return b;
+            }
+            if (b < 0) {
+                return a;
+            }
+            return counts[b] > counts[a] || (counts[b] == counts[a] && b < a) ? b : a;
+        }
+
+        // the most popular key from lo to hi - 1, -1 if the range is empty
+        private int mostPopular(int lo, int hi) {
+            int m = keys.length;
+            int best = -1;
+            for (lo += m, hi += m; lo < hi; lo >>= 1, hi >>= 1) {
+                if ((lo & 1) == 1) {
+                    best = better(best, maxTree[lo++]);
+                }
+                if ((hi & 1) == 1) {
+                    best = better(best, maxTree[--hi]);
+                }
+            }
+            return best;
+        }
+
+        /**
+         * the range of keys that also have c at index k, all the keys from lo to hi - 1 share their first k chars.
+         * Keys that end at k come first, the rest are in order of their char at k
+         */
+        void narrow(int lo, int hi, int k, char c, int[] from, int[] to, int at) {
+            int first = lo;
+            int last = hi;
+            while (first < last) {
+                int mid = (first + last) >>> 1;
+                if (charAt(keys[mid], k) < c) {
+                    first = mid + 1;
+                } else {
+                    last = mid;
+                }
+            }
+            last = hi;
+            int end = first;
+            while (end < last) {
+                int mid = (end + last) >>> 1;
+                if (charAt(keys[mid], k) <= c) {
+                    end = mid + 1;
+                } else {
+                    last = mid;
+                }
+            }
+            from[at] = first;
+            to[at] = end;
+        }
+
+        private static int charAt(String key, int k) {
+            return k < key.length() ? key.charAt(k) : -1;
+        }
+
+        /**
+         * @return up to n of the keys from lo to hi - 1, as they are shown
+         */
+        String[] top(int lo, int hi, int n, Order order) {
+            String[] result = new String[Math.max(0, Math.min(n, hi - lo))];
+            if (order == Order.ALPHABETICAL) {
+                System.arraycopy(shown, lo, result, 0, result.length);
+                return result;
+            }
+            // ranges waiting to be split, the one with the most popular key first
+            PriorityQueue<int[]> ranges = new PriorityQueue<int[]>((a, b) -> a[0] == b[0] ? 0
+                    : better(a[0], b[0]) == a[0] ? -1 : 1);
+            ranges.add(new int[]{mostPopular(lo, hi), lo, hi});
+            for (int i = 0; i < result.length; i++) {
+                int[] range = ranges.poll();
+                int best = range[0];
+                result[i] = shown[best];
+                if (range[1] < best) {
+                    ranges.add(new int[]{mostPopular(range[1], best), range[1], best});
+                }
+                if (best + 1 < range[2]) {
+                    ranges.add(new int[]{mostPopular(best + 1, range[2]), best + 1, range[2]});
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Testing routine, types random titles a character at a time and reports the time per keystroke
+     *
+     * @param args song file, snapshot file
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        String songFile = args.length > 0 ? args[0] : "allSongs.txt";
+        String snapshotFile = args.length > 1 ? args[1] : "allSongs.snapshot";
+        SongSearch ss = SongSearch.load(songFile, snapshotFile);
+        Autocomplete autocomplete = new Autocomplete(ss);
+        Song[] songs = ss.getSongCollection().getAllSongs();
+
+        System.out.println("Most popular titles starting with \"lo\": "
+                + Arrays.toString(autocomplete.complete(Field.TITLE, "lo", 10, Order.POPULARITY)));
+        System.out.println("Artists starting with \"jo\": "
+                + Arrays.toString(autocomplete.complete(Field.ARTIST, "jo", 10, Order.ALPHABETICAL)));
+        System.out.println("Most common lyrics words starting with \"lo\": "
+                + Arrays.toString(autocomplete.complete(Field.TERM, "lo", 10, Order.POPULARITY)));
+
+        for (Field field : Field.values()) {
+            Random rand = new Random(1);
+            long[] times = new long[200000];
+            int keystrokes = 0;
+            for (int round = 0; round < 2; round++) { // the first round warms up
+                keystrokes = 0;
+                while (keystrokes < times.length) {
+                    Session session = autocomplete.session(field, 10, Order.POPULARITY);
+                    Song song = songs[rand.nextInt(songs.length)];
+                    String text = field == Field.ARTIST ? song.getArtist() : song.getTitle();
+                    for (int i = 1; i <= text.length() && keystrokes < times.length; i++) {
+                        long start = System.nanoTime();
+                        session.type(text.substring(0, i));
+                        times[keystrokes++] = System.nanoTime() - start;
+                    }
+                }
+            }
+            Arrays.sort(times);
+            System.out.printf("%s: %d keystrokes, median %.1f us, p99 %.1f us, max %.1f us%n", field, keystrokes,
+                    times[keystrokes / 2] / 1000.0, times[keystrokes * 99 / 100] / 1000.0,
+                    times[keystrokes - 1] / 1000.0);
+        }
+    }
+}
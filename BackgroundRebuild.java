@@ -0,0 +1,53 @@
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a rebuild on a background thread when asked, for a structure that is
+ * replaced rather than changed, such as a trie over keys that have changed.
+ * Asking again while a rebuild is waiting to start does nothing, since the
+ * waiting one reads the latest state when it runs, so however often it is
+ * asked at most one rebuild runs and one waits. The thread is started when
+ * there is a rebuild to run and stops once it has been idle for a minute.
+ *
+ * @author David Heywood
+ */
+final class BackgroundRebuild {
+
+    private final Runnable rebuild;
+    private final ThreadPoolExecutor executor;
+    private boolean waiting; // a rebuild is queued and has not started
+
+    /**
+     * @param threadName name of the thread the rebuilds run on
+     * @param rebuild reads the current state and builds from it
+     */
+    BackgroundRebuild(String threadName, Runnable rebuild) {
+        this.rebuild = rebuild;
+        executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), r -> {
+            Thread thread = new Thread(r, threadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * start a rebuild, unless one is already waiting to start
+     */
+    synchronized void request() {
+        if (waiting) {
+            return;
+        }
+        waiting = true;
+        executor.execute(this::run);
+    }
+
+    // a change after waiting is cleared asks for another rebuild
+    private void run() {
+        synchronized (this) {
+            waiting = false;
+        }
+        rebuild.run();
+    }
+}
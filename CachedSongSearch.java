@@ -0,0 +1,184 @@
+import java.io.IOException;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Function;
+
+/**
+ * The searches of a SongSearch behind one QueryCache, for traffic where a
+ * few queries are asked over and over.
+ *
+ * Queries are normalized before they are looked up, so queries that must
+ * give the same songs share one cached result:
+ *   title and artist prefixes are lower cased, the searches ignore case
+ *   lyrics words are lower cased, common words dropped, and the rest sorted
+ *     with duplicates removed, since the search treats them as a set
+ *   lyrics phrases are split into words the way the lyrics were, common
+ *     words are kept because the phrase has to match them in order
+ *
+ * The returned arrays are shared by everyone who asks the same query, they
+ * must not be changed.
+ *
+ * When songs are added to or removed from the SongSearch the whole cache is
+ * dropped on the next search.
+ *
+ * @author David Heywood
+ */
+public class CachedSongSearch {
+
+    private final SongSearch songSearch;
+    private final QueryCache<Object[]> cache;
+    private long cachedVersion; // the SongSearch version the cached results are from
+
+    /**
+     * @param songSearch the searches to cache
+     * @param capacity most results kept, for all kinds of search together
+     * @param policy
+     */
+    public CachedSongSearch(SongSearch songSearch, int capacity, QueryCache.Policy policy) {
+        this.songSearch = songSearch;
+        cache = new QueryCache<Object[]>(capacity, policy);
+        cachedVersion = songSearch.getVersion();
+    }
+
+    // look up a result, running search under the read lock if it is not cached
+    private Object[] cached(String key, Function<String, Object[]> search) {
+        long version = songSearch.getVersion();
+        synchronized (this) {
+            if (version != cachedVersion) {
+                cache.invalidate();
+                cachedVersion = version;
+            }
+        }
+        return cache.get(key, k -> {
+            Lock lock = songSearch.readLock();
+            lock.lock();
+            try {
+                return search.apply(k);
+            } finally {
+                lock.unlock();
+            }
+        });
+    }
+
+    /**
+     * @param titlePrefix
+     * @return the songs whose title starts with the prefix, in title order
+     */
+    public Song[] searchTitles(String titlePrefix) {
+        return (Song[]) cached("title:" + titlePrefix.toLowerCase(), key -> {
+            RaggedArrayList<Song>.SubListView view = songSearch.getTitleSearch().searchView(key.substring(6));
+            return view.toArray(new Song[view.size()]);
+        });
+    }
+
+    /**
+     * @param artistPrefix
+     * @return the songs whose artist starts with the prefix, sorted by artist then title
+     */
+    public Song[] searchArtists(String artistPrefix) {
+        return (Song[]) cached("artist:" + artistPrefix.toLowerCase(), key ->
+                songSearch.getArtistSearch().searchView(key.substring(7)).toArray(new Song[0]));
+    }
+
+    /**
+     * @param lyricsWords
+     * @return the songs whose lyrics contain all the words
+     */
+    public Song[] searchLyricsWords(String lyricsWords) {
+        return (Song[]) cached("words:" + normalizeWords(lyricsWords), key ->
+                songSearch.getLyricsWordsSearch().search(key.substring(6)));
+    }
+
+    /**
+     * @param lyricsPhrase
+     * @return the songs whose lyrics contain the phrase and their ranks, closest matches first
+     */
+    public SearchByLyricsPhrase.Match[] searchLyricsPhrase(String lyricsPhrase) {
+        return (SearchByLyricsPhrase.Match[]) cached("phrase:" + normalizePhrase(lyricsPhrase), key ->
+                songSearch.getLyricsPhraseSearch().rankedSearch(key.substring(7)));
+    }
+
+    // the same tokens SearchByLyricsWords.search keeps, in a set order
+    private String normalizeWords(String lyricsWords) {
+        TreeSet<String> words = new TreeSet<String>();
+        Scanner in = new Scanner(lyricsWords.toLowerCase());
+        while (in.hasNext()) {
+            words.add(in.next());
+        }
+        words.removeAll(songSearch.getLyricsWordsSearch().getCommonWords());
+        return String.join(" ", words);
+    }
+
+    // the words SearchByLyricsPhrase splits the phrase into
+    private static String normalizePhrase(String lyricsPhrase) {
+        StringBuilder phrase = new StringBuilder();
+        for (String word : LyricsIndex.words(lyricsPhrase)) {
+            if (!word.isEmpty()) {
+                phrase.append(phrase.length() > 0 ? " " : "").append(word);
+            }
+        }
+        return phrase.toString();
+    }
+
+    /**
+     * drop every cached result, call this whenever the songs or the indexes change
+     */
+    public void invalidate() {
+        cache.invalidate();
+    }
+
+    /**
+     * @return the cache, for its hit and miss counts
+     */
+    public QueryCache<Object[]> getCache() {
+        return cache;
+    }
+
+    public SongSearch getSongSearch() {
+        return songSearch;
+    }
+
+    /**
+     * Testing routine, runs a skewed stream of queries through each policy
+     *
+     * @param args song file, snapshot file, cache capacity
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        String songFile = args.length > 0 ? args[0] : "allSongs.txt";
+        String snapshotFile = args.length > 1 ? args[1] : "allSongs.snapshot";
+        int capacity = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+        SongSearch ss = SongSearch.load(songFile, snapshotFile);
+
+        // a few queries are asked most of the time, like real traffic
+        Song[] songs = ss.getSongCollection().getAllSongs();
+        Random rand = new Random(1);
+        String[] queries = new String[5000];
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = songs[rand.nextInt(songs.length)].getTitleKey();
+        }
+        // the first run keeps nothing, to compare against
+        for (int run = 0; run <= QueryCache.Policy.values().length; run++) {
+            QueryCache.Policy policy = QueryCache.Policy.values()[Math.max(0, run - 1)];
+            CachedSongSearch cached = new CachedSongSearch(ss, run == 0 ? 0 : capacity, policy);
+            Random pick = new Random(2);
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < 100000; i++) {
+                // roughly Zipf, low indexes are much more likely
+                int q = (int) Math.exp(pick.nextDouble() * Math.log(queries.length)) - 1;
+                if (i % 2 == 0) {
+                    cached.searchTitles(queries[q]);
+                } else {
+                    cached.searchLyricsWords(queries[q]);
+                }
+            }
+            QueryCache<Object[]> cache = cached.getCache();
+            System.out.printf("%s: hit rate %.1f%%, %d hits, %d misses, %d evictions, %d ms%n",
+                    run == 0 ? "no cache" : policy,
+                    100 * cache.hitRate(), cache.getHits(), cache.getMisses(), cache.getEvictions(),
+                    System.currentTimeMillis() - start);
+        }
+    }
+}
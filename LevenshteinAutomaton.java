@@ -0,0 +1,206 @@
+import java.util.Arrays;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+
+/**
+ * Finds the keys of a sorted dictionary that are within a few edits
+ * (insert, delete or change one character) of a word, such as to match a
+ * misspelled lyrics word to the terms of a LyricsIndex.
+ *
+ * The automaton's state after reading part of a key is the row of edit
+ * distances between that part and each prefix of the word. Reading the next
+ * character of the key computes the next row from the last one, and the key
+ * matches if the distance to the whole word is small enough at its end.
+ *
+ * The keys are read in sorted order, so a key shares its first characters
+ * with the one before it and only the rows after that shared part are
+ * computed. When every distance in a row is too large no key starting with
+ * that part can match. Then only the few characters of the word that keep
+ * some distance small enough can come next, so the search jumps with a
+ * galloping search to the first key that continues with one of them, or
+ * past every key with that part if there are none. Only a small part of the
+ * dictionary is ever read.
+ *
+ * @author David Heywood
+ */
+public class LevenshteinAutomaton {
+
+    private final String word;
+    private final int maxEdits;
+
+    /**
+     * @param word lower case
+     * @param maxEdits most edits a matching key can be from the word
+     */
+    public LevenshteinAutomaton(String word, int maxEdits) {
+        this.word = word;
+        this.maxEdits = maxEdits;
+    }
+
+    /**
+     * edits allowed for a word typed by a user, none for the shortest words since 1 edit away from them is almost
+     * any word that short, 1 up to 5 characters and 2 for longer words
+     *
+     * @param word
+     * @return the edit distance to search with
+     */
+    public static int defaultEdits(String word) {
+        return word.length() <= 2 ? 0 : word.length() <= 5 ? 1 : 2;
+    }
+
+    public int getMaxEdits() {
+        return maxEdits;
+    }
+
+    /**
+     * find the matching keys
+     *
+     * @param keys keys.apply(i) is the i'th key, sorted by String.compareTo
+     * @param numKeys
+     * @param prefix true to match a key if any prefix of it is close enough to the word, as for a prefix search
+     * @return the matching keys as ranges of indexes, {from, to, from, to...}, in increasing order
+     */
+    public int[] matches(IntFunction<String> keys, int numKeys, boolean prefix) {
+        int m = word.length();
+        int[][] rows = new int[16][]; // rows[d] is the state after reading the first d characters of the key
+        rows[0] = new int[m + 1];
+        for (int j = 0; j <= m; j++) {
+            rows[0][j] = j;
+        }
+        LyricsIndex.IntList ranges = new LyricsIndex.IntList();
+        String previous = "";
+        int known = 0; // rows[0] to rows[known] hold the states of previous's first known characters
+
+        int i = 0;
+        while (i < numKeys) {
+            String key = keys.apply(i);
+            int d = 0;
+            int max = Math.min(known, Math.min(key.length(), previous.length()));
+            while (d < max && key.charAt(d) == previous.charAt(d)) {
+                d++;
+            }
+            // read the rest of the key until it matches as a prefix, can not match, or ends
+            boolean dead = false;
+            boolean accepted = prefix && rows[d][m] <= maxEdits;
+            while (!accepted && d < key.length()) {
+                if (d + 1 == rows.length) {
+                    rows = Arrays.copyOf(rows, rows.length * 2);
+                }
+                if (rows[d + 1] == null) {
+                    rows[d + 1] = new int[m + 1];
+                }
+                if (!step(rows[d], key.charAt(d), rows[d + 1])) {
+                    dead = true;
+                    break;
+                }
+                d++;
+                accepted = prefix && rows[d][m] <= maxEdits;
+            }
+            previous = key;
+            known = d;
+
+            if (dead) {
+                // jump to the first key after this one that goes on with a character that keeps it alive
+                int next = nextLive(rows[d], key.charAt(d));
+                String part = key.substring(0, d);
+                i = firstAfter(keys, numKeys, i, next < 0 ? x -> x.startsWith(part)
+                        : x -> compare(x, part, (char) next) < 0);
+            } else if (accepted) {
+                // every key starting with the first d characters matches
+                String part = key.substring(0, d);
+                int end = firstAfter(keys, numKeys, i, x -> x.startsWith(part));
+                addRange(ranges, i, end);
+                i = end;
+            } else {
+                if (rows[d][m] <= maxEdits) {
+                    addRange(ranges, i, i + 1);
+                }
+                i++;
+            }
+        }
+        return ranges.toArray();
+    }
+
+    /**
+     * the state after reading c
+     *
+     * @return false if no key continuing this way can match
+     */
+    private boolean step(int[] row, char c, int[] next) {
+        int best = next[0] = row[0] + 1;
+        for (int j = 1; j < next.length; j++) {
+            int cost = row[j - 1] + (word.charAt(j - 1) == c ? 0 : 1);
+            next[j] = Math.min(cost, Math.min(row[j], next[j - 1]) + 1);
+            best = Math.min(best, next[j]);
+        }
+        return best <= maxEdits;
+    }
+
+    /**
+     * the lowest character after c that leaves a state that can still match, -1 if there is none. Only called when
+     * reading c left no distance small enough, so every distance in row is maxEdits and only a character of the
+     * word where it is that distance can follow
+     */
+    private int nextLive(int[] row, char c) {
+        int next = -1;
+        for (int j = 1; j < row.length; j++) {
+            char w = word.charAt(j - 1);
+            if (row[j - 1] <= maxEdits && w > c && (next < 0 || w < next)) {
+                next = w;
+            }
+        }
+        return next;
+    }
+
+    // compare x to part followed by c
+    private static int compare(String x, String part, char c) {
+        int length = part.length();
+        for (int p = 0; p < length; p++) {
+            if (p == x.length()) {
+                return -1;
+            }
+            if (x.charAt(p) != part.charAt(p)) {
+                return x.charAt(p) - part.charAt(p);
+            }
+        }
+        return length == x.length() ? -1 : x.charAt(length) - c;
+    }
+
+    /**
+     * galloping search for the first key after i that is not before a point, the keys before it are a prefix of the
+     * keys from i on
+     *
+     * @param before true for a key that is before the point
+     */
+    private static int firstAfter(IntFunction<String> keys, int numKeys, int i, Predicate<String> before) {
+        int lo = i + 1;
+        int step = 1;
+        int hi = i + 1;
+        while (hi < numKeys && before.test(keys.apply(hi))) {
+            lo = hi + 1;
+            hi = i + 1 + step;
+            step *= 2;
+        }
+        hi = Math.min(hi, numKeys);
+        // the first key not before the point is in [lo, hi]
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (before.test(keys.apply(mid))) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // add a range, joining it to the last one if they touch
+    private static void addRange(LyricsIndex.IntList ranges, int from, int to) {
+        if (ranges.size > 0 && ranges.items[ranges.size - 1] == from) {
+            ranges.items[ranges.size - 1] = to;
+        } else {
+            ranges.add(from);
+            ranges.add(to);
+        }
+    }
+}
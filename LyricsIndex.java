@@ -0,0 +1,898 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Compact inverted index of the words in song lyrics.
+ *
+ * The term dictionary is a sorted String[] and each term has a sorted int[]
+ * posting list of song IDs. A song ID is the index of the song in the Song[]
+ * the index was built from, so the Song objects themselves are only held once.
+ *
+ * The posting lists are either held as int[]'s, or left compressed in a
+ * memory mapped LyricsIndexFile and decoded when they are asked for.
+ *
+ * For ranking, each posting also has how many times the term is in the
+ * song, and the index has the number of words in each song. Each term
+ * keeps the most times it is in any one song and the fewest words of any
+ * song it is in, which bound how well the term can score in any song.
+ *
+ * The same structure also indexes the words of the songs' artists and
+ * titles, see buildFields.
+ *
+ * An index is never changed. Adding a song gives a new index that shares
+ * the posting lists of every term the song does not have. Removed songs are
+ * left out when indexes are joined with concat.
+ *
+ * @author David Heywood
+ */
+public class LyricsIndex {
+
+    public static final String ARTIST_FIELD = "artist:"; // in front of the artist words in buildFields
+    public static final String TITLE_FIELD = "title:";   // in front of the title words
+
+    private final String[] terms;    // sorted term dictionary
+    private final int[][] postings;  // postings[t] = sorted IDs of the songs containing terms[t]
+    private final int[][] freqs;     // freqs[t][i] = times terms[t] is in the lyrics of song postings[t][i]
+    // when mapped from a file instead, postings and freqs are null and these are used
+    private final ByteBuffer encoded;    // the mapped file
+    private final int[] offsets;         // offsets[t] = start of the compressed list for terms[t]
+    private final int[] freqOffsets;     // freqOffsets[t] = start of the compressed frequencies for terms[t]
+    private final int[] docFreqs;        // docFreqs[t] = number of songs in the list for terms[t]
+    private final int[] maxFreqs;        // maxFreqs[t] = most times terms[t] is in any one song
+    private final int[] minLengths;      // minLengths[t] = fewest words of any song containing terms[t]
+    private final int firstDoc;          // lowest song ID docLengths covers
+    private final int[] docLengths;      // docLengths[id - firstDoc] = number of indexed words in song id
+    private final long totalLength;      // sum of docLengths
+
+    /**
+     * @param terms sorted term dictionary
+     * @param postings sorted song IDs for each term
+     * @param freqs times the term is in each of those songs
+     * @param firstDoc lowest song ID in the index
+     * @param docLengths number of indexed words, repeats included, of each song from firstDoc on
+     */
+    LyricsIndex(String[] terms, int[][] postings, int[][] freqs, int firstDoc, int[] docLengths) {
+        this.terms = terms;
+        this.postings = postings;
+        this.freqs = freqs;
+        this.encoded = null;
+        this.offsets = null;
+        this.freqOffsets = null;
+        this.docFreqs = null;
+        this.firstDoc = firstDoc;
+        this.docLengths = docLengths;
+        this.totalLength = sum(docLengths);
+        maxFreqs = new int[terms.length];
+        minLengths = new int[terms.length];
+        for (int t = 0; t < terms.length; t++) {
+            int max = 0;
+            int min = Integer.MAX_VALUE;
+            for (int i = 0; i < postings[t].length; i++) {
+                max = Math.max(max, freqs[t][i]);
+                min = Math.min(min, docLength(postings[t][i]));
+            }
+            maxFreqs[t] = max;
+            minLengths[t] = min;
+        }
+    }
+
+    /**
+     * index whose posting lists are left compressed in a mapped file
+     *
+     * @param terms sorted term dictionary
+     * @param encoded the mapped LyricsIndexFile
+     * @param offsets where each term's compressed list starts
+     * @param freqOffsets where each term's compressed frequencies start
+     * @param docFreqs the number of songs in each term's list
+     * @param maxFreqs most times each term is in one song
+     * @param minLengths fewest words of a song with each term
+     * @param docLengths number of indexed words of each song from ID 0 on
+     */
+    LyricsIndex(String[] terms, ByteBuffer encoded, int[] offsets, int[] freqOffsets, int[] docFreqs,
+            int[] maxFreqs, int[] minLengths, int[] docLengths) {
+        this.terms = terms;
+        this.postings = null;
+        this.freqs = null;
+        this.encoded = encoded;
+        this.offsets = offsets;
+        this.freqOffsets = freqOffsets;
+        this.docFreqs = docFreqs;
+        this.maxFreqs = maxFreqs;
+        this.minLengths = minLengths;
+        this.firstDoc = 0;
+        this.docLengths = docLengths;
+        this.totalLength = sum(docLengths);
+    }
+
+    /**
+     * @return an index of no songs, to add songs to
+     */
+    public static LyricsIndex empty() {
+        return new LyricsIndex(new String[0], new int[0][], new int[0][], 0, new int[0]);
+    }
+
+    private static long sum(int[] values) {
+        long total = 0;
+        for (int value : values) {
+            total += value;
+        }
+        return total;
+    }
+
+    /**
+     * Build the index for an array of songs, the song IDs are the array indexes
+     *
+     * @param songs the songs to index
+     * @param commonWords words that are not indexed
+     * @return the index
+     */
+    public static LyricsIndex build(Song[] songs, Set<String> commonWords) {
+        List<Map<String, IntList>> chunks = new ArrayList<Map<String, IntList>>();
+        chunks.add(buildChunk(songs, 0, songs.length, LyricsIndex::lyricsWords, commonWords));
+        return merge(chunks, songs.length);
+    }
+
+    /**
+     * Build an index of the words of the songs' artists and titles. The
+     * terms are the words with "artist:" or "title:" in front, so one index
+     * holds both fields and its terms never clash with lyrics words. Common
+     * words are indexed too, a title can be just "The End"
+     *
+     * @param songs the songs to index
+     * @return the index
+     */
+    public static LyricsIndex buildFields(Song[] songs) {
+        List<Map<String, IntList>> chunks = new ArrayList<Map<String, IntList>>();
+        chunks.add(buildChunk(songs, 0, songs.length, LyricsIndex::fieldWords, Collections.<String>emptySet()));
+        return merge(chunks, songs.length);
+    }
+
+    /**
+     * Build the index using several threads. The songs are split into one
+     * contiguous range of IDs per thread, each range is indexed on its own and
+     * the posting lists are joined in range order, so the result is exactly
+     * the same as the single threaded build
+     *
+     * @param songs the songs to index
+     * @param commonWords words that are not indexed, only read by the threads
+     * @param threads number of threads to use
+     * @return the index
+     */
+    public static LyricsIndex build(Song[] songs, Set<String> commonWords, int threads) {
+        if (threads <= 1 || songs.length < threads) {
+            return build(songs, commonWords);
+        }
+        List<Callable<Map<String, IntList>>> tasks = new ArrayList<Callable<Map<String, IntList>>>();
+        for (int i = 0; i < threads; i++) {
+            final int from = (int) ((long) songs.length * i / threads);
+            final int to = (int) ((long) songs.length * (i + 1) / threads);
+            tasks.add(() -> buildChunk(songs, from, to, LyricsIndex::lyricsWords, commonWords));
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            List<Map<String, IntList>> chunks = new ArrayList<Map<String, IntList>>();
+            for (Future<Map<String, IntList>> chunk : pool.invokeAll(tasks)) {
+                chunks.add(chunk.get());
+            }
+            return merge(chunks, songs.length);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while building the lyrics index", ex);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("could not build the lyrics index", ex.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Index the songs with IDs from, inclusive, to to, exclusive
+     *
+     * @return each term's song IDs, in increasing order, each followed by the times the term is in that song
+     */
+    private static Map<String, IntList> buildChunk(Song[] songs, int from, int to, Function<Song, String[]> text,
+            Set<String> commonWords) {
+        Map<String, IntList> termPostings = new HashMap<String, IntList>();
+        for (int id = from; id < to; id++) {
+            for (String word : text.apply(songs[id])) {
+                if (isIndexed(word, commonWords)) {
+                    IntList list = termPostings.get(word);
+                    if (list == null) {
+                        list = new IntList();
+                        termPostings.put(word, list);
+                    }
+                    // songs are added in ID order, so a repeated word is always the last entry
+                    if (list.size == 0 || list.items[list.size - 2] != id) {
+                        list.add(id);
+                        list.add(1);
+                    } else {
+                        list.items[list.size - 1]++;
+                    }
+                }
+            }
+        }
+        return termPostings;
+    }
+
+    /**
+     * Join the chunks into one index, the chunks must cover increasing ranges of IDs in list order
+     */
+    private static LyricsIndex merge(List<Map<String, IntList>> chunks, int numSongs) {
+        Set<String> allTerms = new HashSet<String>();
+        for (Map<String, IntList> chunk : chunks) {
+            allTerms.addAll(chunk.keySet());
+        }
+        String[] terms = allTerms.toArray(new String[allTerms.size()]);
+        Arrays.sort(terms);
+        int[][] postings = new int[terms.length][];
+        int[][] freqs = new int[terms.length][];
+        int[] docLengths = new int[numSongs];
+        for (int t = 0; t < terms.length; t++) {
+            int length = 0;
+            for (Map<String, IntList> chunk : chunks) {
+                IntList list = chunk.get(terms[t]);
+                length += list == null ? 0 : list.size / 2;
+            }
+            int[] ids = new int[length];
+            int[] counts = new int[length];
+            int n = 0;
+            for (Map<String, IntList> chunk : chunks) {
+                IntList list = chunk.get(terms[t]);
+                for (int i = 0; list != null && i < list.size; i += 2) {
+                    ids[n] = list.items[i];
+                    counts[n] = list.items[i + 1];
+                    docLengths[ids[n]] += counts[n];
+                    n++;
+                }
+            }
+            postings[t] = ids;
+            freqs[t] = counts;
+        }
+        return new LyricsIndex(terms, postings, freqs, 0, docLengths);
+    }
+
+    private static String[] lyricsWords(Song song) {
+        return words(song.getLyrics());
+    }
+
+    /**
+     * @param song
+     * @return the terms the song's artist and title are indexed under in buildFields, repeats included
+     */
+    static String[] fieldWords(Song song) {
+        ArrayList<String> terms = new ArrayList<String>();
+        for (String word : words(song.getArtist())) {
+            if (!word.isEmpty()) {
+                terms.add(ARTIST_FIELD + word);
+            }
+        }
+        for (String word : words(song.getTitle())) {
+            if (!word.isEmpty()) {
+                terms.add(TITLE_FIELD + word);
+            }
+        }
+        return terms.toArray(new String[terms.size()]);
+    }
+
+    /**
+     * @param song
+     * @return the terms the song's artist and title are indexed under in buildFields and the times each is in them
+     */
+    public static TreeMap<String, Integer> fieldCounts(Song song) {
+        TreeMap<String, Integer> counts = new TreeMap<String, Integer>();
+        for (String term : fieldWords(song)) {
+            counts.merge(term, 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    /**
+     * @param word a lower case word from words()
+     * @param commonWords
+     * @return true if the word is put in the index
+     */
+    static boolean isIndexed(String word, Set<String> commonWords) {
+        return word.length() > 1 && !commonWords.contains(word);
+    }
+
+    /**
+     * @param lyrics
+     * @param commonWords
+     * @return the terms the lyrics are indexed under and the times each is in them, sorted
+     */
+    public static TreeMap<String, Integer> termCounts(String lyrics, Set<String> commonWords) {
+        TreeMap<String, Integer> counts = new TreeMap<String, Integer>();
+        for (String word : words(lyrics)) {
+            if (isIndexed(word, commonWords)) {
+                counts.merge(word, 1, Integer::sum);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * @param lyrics
+     * @param commonWords
+     * @return the terms the lyrics are indexed under, sorted without repeats
+     */
+    public static TreeSet<String> terms(String lyrics, Set<String> commonWords) {
+        TreeSet<String> terms = new TreeSet<String>();
+        for (String word : words(lyrics)) {
+            if (isIndexed(word, commonWords)) {
+                terms.add(word);
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * a new index that also has a song
+     *
+     * @param id the song's ID, not already in the index
+     * @param songTerms the song's terms and the times each is in it, from termCounts()
+     * @return the new index, this one is unchanged
+     */
+    public LyricsIndex withSong(int id, SortedMap<String, Integer> songTerms) {
+        ArrayList<String> newTerms = new ArrayList<String>(terms.length + songTerms.size());
+        ArrayList<int[]> newPostings = new ArrayList<int[]>(terms.length + songTerms.size());
+        ArrayList<int[]> newFreqs = new ArrayList<int[]>(terms.length + songTerms.size());
+        int length = 0;
+        int t = 0;
+        for (Map.Entry<String, Integer> entry : songTerms.entrySet()) {
+            String term = entry.getKey();
+            int count = entry.getValue();
+            length += count;
+            // copy the terms before this one, then add the song to it
+            while (t < terms.length && terms[t].compareTo(term) < 0) {
+                newTerms.add(terms[t]);
+                newPostings.add(postings(t));
+                newFreqs.add(frequencies(t));
+                t++;
+            }
+            newTerms.add(term);
+            if (t < terms.length && terms[t].equals(term)) {
+                int[] ids = postings(t);
+                int pos = Arrays.binarySearch(ids, id);
+                if (pos >= 0) {
+                    newPostings.add(ids);
+                    newFreqs.add(frequencies(t));
+                } else {
+                    newPostings.add(insert(ids, -pos - 1, id));
+                    newFreqs.add(insert(frequencies(t), -pos - 1, count));
+                }
+                t++;
+            } else {
+                newPostings.add(new int[]{id});
+                newFreqs.add(new int[]{count});
+            }
+        }
+        for (; t < terms.length; t++) {
+            newTerms.add(terms[t]);
+            newPostings.add(postings(t));
+            newFreqs.add(frequencies(t));
+        }
+
+        // the lengths now also cover id
+        int from = docLengths.length == 0 ? id : Math.min(firstDoc, id);
+        int to = docLengths.length == 0 ? id + 1 : Math.max(firstDoc + docLengths.length, id + 1);
+        int[] lengths = new int[to - from];
+        System.arraycopy(docLengths, 0, lengths, docLengths.length == 0 ? 0 : firstDoc - from, docLengths.length);
+        lengths[id - from] = length;
+        return new LyricsIndex(newTerms.toArray(new String[newTerms.size()]),
+                newPostings.toArray(new int[newPostings.size()][]), newFreqs.toArray(new int[newFreqs.size()][]),
+                from, lengths);
+    }
+
+    /**
+     * a new index with the song IDs renumbered, such as to compact the IDs
+     * after songs were removed
+     *
+     * @param newIds newIds[id] is the song's new ID, -1 to drop the song
+     * @return the new index, this one is unchanged
+     */
+    public LyricsIndex remap(int[] newIds) {
+        ArrayList<String> newTerms = new ArrayList<String>(terms.length);
+        ArrayList<int[]> newPostings = new ArrayList<int[]>(terms.length);
+        ArrayList<int[]> newFreqs = new ArrayList<int[]>(terms.length);
+        for (int t = 0; t < terms.length; t++) {
+            int[] list = postings(t);
+            int[] counts = frequencies(t);
+            long[] mapped = new long[list.length]; // new ID in the high half and count in the low, to sort together
+            int n = 0;
+            boolean sorted = true;
+            for (int i = 0; i < list.length; i++) {
+                int newId = newIds[list[i]];
+                if (newId >= 0) {
+                    mapped[n] = (long) newId << 32 | counts[i];
+                    sorted &= n == 0 || mapped[n - 1] < mapped[n];
+                    n++;
+                }
+            }
+            if (n > 0) {
+                if (!sorted) {
+                    Arrays.sort(mapped, 0, n);
+                }
+                int[] ids = new int[n];
+                int[] newCounts = new int[n];
+                for (int i = 0; i < n; i++) {
+                    ids[i] = (int) (mapped[i] >>> 32);
+                    newCounts[i] = (int) mapped[i];
+                }
+                newTerms.add(terms[t]);
+                newPostings.add(ids);
+                newFreqs.add(newCounts);
+            }
+        }
+        int numIds = 0;
+        for (int newId : newIds) {
+            numIds = Math.max(numIds, newId + 1);
+        }
+        int[] lengths = new int[numIds];
+        for (int id = 0; id < newIds.length; id++) {
+            if (newIds[id] >= 0) {
+                lengths[newIds[id]] = docLength(id);
+            }
+        }
+        return new LyricsIndex(newTerms.toArray(new String[newTerms.size()]),
+                newPostings.toArray(new int[newPostings.size()][]), newFreqs.toArray(new int[newFreqs.size()][]),
+                0, lengths);
+    }
+
+    /**
+     * one index holding the songs of several, such as to merge the segments
+     * of SearchByLyricsWords. Each part's song IDs must all be higher than
+     * the IDs of the parts before it, so a term's lists are joined end to end
+     * without sorting
+     *
+     * @param parts the indexes, in ID order
+     * @param deleted sorted IDs of songs to leave out, terms only they had are dropped
+     * @return the new index, the parts are unchanged
+     */
+    public static LyricsIndex concat(LyricsIndex[] parts, int[] deleted) {
+        ArrayList<String> newTerms = new ArrayList<String>();
+        ArrayList<int[]> newPostings = new ArrayList<int[]>();
+        ArrayList<int[]> newFreqs = new ArrayList<int[]>();
+        int[] next = new int[parts.length]; // next term of each part
+        for (;;) {
+            // the lowest term any part has left, there are only a few parts
+            String term = null;
+            for (int p = 0; p < parts.length; p++) {
+                if (next[p] < parts[p].terms.length
+                        && (term == null || parts[p].terms[next[p]].compareTo(term) < 0)) {
+                    term = parts[p].terms[next[p]];
+                }
+            }
+            if (term == null) {
+                break;
+            }
+            IntList list = new IntList();
+            IntList counts = new IntList();
+            for (int p = 0; p < parts.length; p++) {
+                if (next[p] < parts[p].terms.length && parts[p].terms[next[p]].equals(term)) {
+                    int[] ids = parts[p].postings(next[p]);
+                    int[] partCounts = parts[p].frequencies(next[p]++);
+                    for (int i = 0; i < ids.length; i++) {
+                        if (deleted.length == 0 || Arrays.binarySearch(deleted, ids[i]) < 0) {
+                            list.add(ids[i]);
+                            counts.add(partCounts[i]);
+                        }
+                    }
+                }
+            }
+            if (list.size > 0) {
+                newTerms.add(term);
+                newPostings.add(list.toArray());
+                newFreqs.add(counts.toArray());
+            }
+        }
+
+        // the lengths of every part's IDs, deleted songs have none
+        int from = Integer.MAX_VALUE;
+        int to = 0;
+        for (LyricsIndex part : parts) {
+            if (part.docLengths.length > 0) {
+                from = Math.min(from, part.firstDoc);
+                to = Math.max(to, part.firstDoc + part.docLengths.length);
+            }
+        }
+        from = Math.min(from, to);
+        int[] lengths = new int[to - from];
+        for (LyricsIndex part : parts) {
+            if (part.docLengths.length > 0) {
+                System.arraycopy(part.docLengths, 0, lengths, part.firstDoc - from, part.docLengths.length);
+            }
+        }
+        for (int id : deleted) {
+            if (id >= from && id < to) {
+                lengths[id - from] = 0;
+            }
+        }
+        return new LyricsIndex(newTerms.toArray(new String[newTerms.size()]),
+                newPostings.toArray(new int[newPostings.size()][]), newFreqs.toArray(new int[newFreqs.size()][]),
+                from, lengths);
+    }
+
+    // a copy of a list with value put in at pos
+    private static int[] insert(int[] list, int pos, int value) {
+        int[] result = new int[list.length + 1];
+        System.arraycopy(list, 0, result, 0, pos);
+        result[pos] = value;
+        System.arraycopy(list, pos, result, pos + 1, list.length - pos);
+        return result;
+    }
+
+    /**
+     * Split lyrics into lower case words, removing punctuation and numbers
+     *
+     * @param lyrics
+     * @return the words, may include empty strings and single letters
+     */
+    public static String[] words(String lyrics) {
+        return lyrics.toLowerCase().split("[^a-zA-Z]+");
+    }
+
+    /**
+     * @return the number of terms in the dictionary
+     */
+    public int numTerms() {
+        return terms.length;
+    }
+
+    /**
+     * @param termId
+     * @return the term with that ID, terms are numbered in sorted order
+     */
+    public String term(int termId) {
+        return terms[termId];
+    }
+
+    /**
+     * Binary search the term dictionary
+     *
+     * @param term
+     * @return the term's ID, or -1 if it is not in the index
+     */
+    public int termId(String term) {
+        int termId = Arrays.binarySearch(terms, term);
+        return termId >= 0 ? termId : -1;
+    }
+
+    /**
+     * @param termId
+     * @return the sorted song IDs for the term, do not modify
+     */
+    public int[] postings(int termId) {
+        if (postings != null) {
+            return postings[termId];
+        }
+        return LyricsIndexFile.decodePostings(encoded, offsets[termId], docFreqs[termId]);
+    }
+
+    /**
+     * @param termId
+     * @return the times the term is in each song of its posting list, in the same order, do not modify
+     */
+    public int[] frequencies(int termId) {
+        if (freqs != null) {
+            return freqs[termId];
+        }
+        return LyricsIndexFile.decodeFrequencies(encoded, freqOffsets[termId], docFreqs[termId]);
+    }
+
+    /**
+     * @param termId
+     * @return the most times the term is in any one song
+     */
+    public int maxFreq(int termId) {
+        return maxFreqs[termId];
+    }
+
+    /**
+     * @param termId
+     * @return the fewest indexed words of any song containing the term
+     */
+    public int minLength(int termId) {
+        return minLengths[termId];
+    }
+
+    /**
+     * @param id
+     * @return the number of indexed words in the song's lyrics, repeats included, 0 if it is not in the index
+     */
+    public int docLength(int id) {
+        return id >= firstDoc && id < firstDoc + docLengths.length ? docLengths[id - firstDoc] : 0;
+    }
+
+    /**
+     * @return the number of song IDs the index covers, whether or not they have any terms
+     */
+    public int numDocs() {
+        return docLengths.length;
+    }
+
+    /**
+     * @return the number of indexed words in all the songs
+     */
+    public long totalLength() {
+        return totalLength;
+    }
+
+    /**
+     * @param termId
+     * @return the number of songs containing the term, without decoding its list
+     */
+    public int docFreq(int termId) {
+        return postings != null ? postings[termId].length : docFreqs[termId];
+    }
+
+    /**
+     * @param term
+     * @return the sorted song IDs for the term, null if it is not in the index
+     */
+    public int[] postings(String term) {
+        int termId = termId(term);
+        return termId >= 0 ? postings(termId) : null;
+    }
+
+    /**
+     * @return the total number of song references in all the posting lists
+     */
+    public int numPostings() {
+        int total = 0;
+        for (int t = 0; t < terms.length; t++) {
+            total += docFreq(t);
+        }
+        return total;
+    }
+
+    /**
+     * Intersect any number of sorted ID lists, starting from the shortest
+     * and stopping as soon as the result is empty
+     *
+     * @param lists sorted ID lists, the array is reordered by length
+     * @return the IDs in every list, sorted
+     */
+    public static int[] intersectAll(int[][] lists) {
+        if (lists.length == 0) {
+            return new int[0];
+        }
+        Arrays.sort(lists, (x, y) -> Integer.compare(x.length, y.length));
+        int[] result = lists[0];
+        for (int i = 1; i < lists.length && result.length > 0; i++) {
+            result = intersect(result, lists[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Intersect two sorted ID lists. Each ID of the shorter list is looked
+     * for in the longer one by galloping (exponential) search from the last
+     * match, so the cost is O(m log(n/m)) instead of O(m + n)
+     *
+     * @param a
+     * @param b
+     * @return the IDs in both lists, sorted
+     */
+    public static int[] intersect(int[] a, int[] b) {
+        if (a.length > b.length) {
+            int[] t = a;
+            a = b;
+            b = t;
+        }
+        int[] result = new int[a.length];
+        int n = 0;
+        int j = 0;
+        for (int i = 0; i < a.length && j < b.length; i++) {
+            j = gallop(b, j, a[i]);
+            if (j < b.length && b[j] == a[i]) {
+                result[n++] = a[i];
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /**
+     * Intersect groups of sorted ID lists, where an ID is in a group if it is
+     * in any of the group's lists, such as the terms a misspelled word could
+     * be. Only the smallest group's lists are merged, the IDs left are then
+     * looked for in the other groups' lists, so the long lists of the
+     * common words close to some query word are not merged
+     *
+     * @param groups the groups, the array is reordered by size
+     * @return the IDs in every group, sorted
+     */
+    public static int[] intersectGroups(int[][][] groups) {
+        if (groups.length == 0) {
+            return new int[0];
+        }
+        Arrays.sort(groups, (x, y) -> Long.compare(numIds(x), numIds(y)));
+        int[] result = unionAll(groups[0]);
+        for (int g = 1; g < groups.length && result.length > 0; g++) {
+            result = intersectAny(result, groups[g]);
+        }
+        return result;
+    }
+
+    private static long numIds(int[][] lists) {
+        long n = 0;
+        for (int[] list : lists) {
+            n += list.length;
+        }
+        return n;
+    }
+
+    /**
+     * the IDs that are in any of the lists, each ID is looked for by galloping
+     * search in each list until it is found, unless merging the lists would be
+     * less work
+     */
+    private static int[] intersectAny(int[] ids, int[][] lists) {
+        if (lists.length == 1 || (long) ids.length * lists.length > numIds(lists)) {
+            return intersect(ids, unionAll(lists));
+        }
+        int[] from = new int[lists.length]; // where each list's search starts, IDs are looked for in order
+        int[] result = new int[ids.length];
+        int n = 0;
+        for (int id : ids) {
+            for (int l = 0; l < lists.length; l++) {
+                from[l] = gallop(lists[l], from[l], id);
+                if (from[l] < lists[l].length && lists[l][from[l]] == id) {
+                    result[n++] = id;
+                    break;
+                }
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /**
+     * Union of any number of sorted ID lists, merged in pairs so each ID is
+     * copied about log(lists) times
+     *
+     * @param lists sorted ID lists
+     * @return the IDs in any list, sorted without repeats
+     */
+    public static int[] unionAll(int[][] lists) {
+        if (lists.length == 0) {
+            return new int[0];
+        }
+        int n = lists.length;
+        lists = lists.clone();
+        while (n > 1) {
+            for (int i = 0; i < n / 2; i++) {
+                lists[i] = union(lists[2 * i], lists[2 * i + 1]);
+            }
+            if (n % 2 == 1) {
+                lists[n / 2] = lists[n - 1];
+            }
+            n = (n + 1) / 2;
+        }
+        return lists[0];
+    }
+
+    /**
+     * Union of two sorted ID lists in one linear merge
+     *
+     * @param a
+     * @param b
+     * @return the IDs in either list, sorted without repeats
+     */
+    public static int[] union(int[] a, int[] b) {
+        int[] result = new int[a.length + b.length];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                result[n++] = a[i++];
+            } else if (a[i] > b[j]) {
+                result[n++] = b[j++];
+            } else {
+                result[n++] = a[i++];
+                j++;
+            }
+        }
+        while (i < a.length) {
+            result[n++] = a[i++];
+        }
+        while (j < b.length) {
+            result[n++] = b[j++];
+        }
+        return n == result.length ? result : Arrays.copyOf(result, n);
+    }
+
+    /**
+     * The IDs of one sorted list that are not in another. Each ID of a is
+     * looked for in b by galloping search from the last one, so it is one
+     * linear merge at most, and less when b is much longer than a
+     *
+     * @param a
+     * @param b
+     * @return the IDs in a and not in b, sorted
+     */
+    public static int[] difference(int[] a, int[] b) {
+        int[] result = new int[a.length];
+        int n = 0;
+        int j = 0;
+        for (int i = 0; i < a.length; i++) {
+            j = gallop(b, j, a[i]);
+            if (j == b.length) {
+                System.arraycopy(a, i, result, n, a.length - i);
+                n += a.length - i;
+                break;
+            }
+            if (b[j] != a[i]) {
+                result[n++] = a[i];
+            }
+        }
+        return n == result.length ? result : Arrays.copyOf(result, n);
+    }
+
+    /**
+     * Galloping search, double the step until past the key then binary search
+     * the last step
+     *
+     * @param list sorted IDs
+     * @param from index to start at
+     * @param key
+     * @return index of the first ID >= key at or after from, list.length if none
+     */
+    static int gallop(int[] list, int from, int key) {
+        int lo = from;
+        int step = 1;
+        int hi = from;
+        while (hi < list.length && list[hi] < key) {
+            lo = hi + 1;
+            hi = from + step;
+            step *= 2;
+        }
+        hi = Math.min(hi, list.length);
+        // the first ID >= key is in [lo, hi]
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (list[mid] < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * growable list of ints, used while building posting lists and tries
+     */
+    static class IntList {
+
+        int[] items = new int[4];
+        int size;
+
+        void add(int value) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+            }
+            items[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(items, size);
+        }
+    }
+}
@@ -0,0 +1,330 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Saves a LyricsIndex to a file and memory maps it back.
+ *
+ * File layout, all counts are varints unless noted:
+ *   magic (int), version (int), number of songs (int), number of terms (int),
+ *   fingerprint of the songs it was built from (long), CRC32 of everything
+ *   after the header (long)
+ *   term dictionary, front coded in sorted order, for each term:
+ *     chars shared with the previous term, suffix byte length, suffix UTF-8 bytes,
+ *     number of songs, byte length of its posting list, byte length of its
+ *     frequencies, most times it is in one song, fewest words of a song with it
+ *   document lengths: the number of indexed words of each song
+ *   posting lists, one after the other, each song ID stored as the varint
+ *   gap from the previous ID, followed by the times the term is in each song
+ *
+ * Loading only decodes the term dictionary and the document lengths.
+ * Posting lists stay in the mapped file and are decoded when a query asks
+ * for them. So that a search never decodes past the end of a damaged file,
+ * the checksum and every length in the dictionary are checked when it is
+ * loaded, and a file that fails is not used.
+ *
+ * @author David Heywood
+ */
+public class LyricsIndexFile {
+
+    private static final int MAGIC = 0x4C595258; // "LYRX"
+    private static final int VERSION = 3; // 2 added term frequencies and document lengths, 3 the fingerprint and CRC
+    private static final int HEADER_BYTES = 32;
+
+    /**
+     * Write the index to a file, it is written to a temporary file first and
+     * renamed so a reader never sees a half written index
+     *
+     * @param index the index to save
+     * @param numSongs the number of songs the index was built from
+     * @param fingerprint of the songs the index was built from, such as from fingerprint(Song[])
+     * @param file where to save it
+     * @throws IOException
+     */
+    public static void write(LyricsIndex index, int numSongs, long fingerprint, File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp))) {
+            writeTo(index, numSongs, fingerprint, out);
+        }
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file)) {
+                throw new IOException("could not rename " + tmp + " to " + file);
+            }
+        }
+    }
+
+    /**
+     * Write the index in the file layout to a stream
+     *
+     * @param index the index to save
+     * @param numSongs the number of songs the index was built from
+     * @param fingerprint of the songs the index was built from
+     * @param stream where to write it, it is not closed
+     * @throws IOException
+     */
+    static void writeTo(LyricsIndex index, int numSongs, long fingerprint, OutputStream stream) throws IOException {
+        // encode the posting lists first so their lengths can go in the dictionary
+        ByteArrayOutputStream postingBytes = new ByteArrayOutputStream();
+        int[] postingLengths = new int[index.numTerms()];
+        int[] freqLengths = new int[index.numTerms()];
+        for (int t = 0; t < index.numTerms(); t++) {
+            int start = postingBytes.size();
+            int previous = 0;
+            for (int id : index.postings(t)) {
+                writeVarint(postingBytes, id - previous);
+                previous = id;
+            }
+            postingLengths[t] = postingBytes.size() - start;
+            start = postingBytes.size();
+            for (int freq : index.frequencies(t)) {
+                writeVarint(postingBytes, freq);
+            }
+            freqLengths[t] = postingBytes.size() - start;
+        }
+
+        // the body is held too, the checksum of it goes in the header
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(body);
+        String previous = "";
+        for (int t = 0; t < index.numTerms(); t++) {
+            String term = index.term(t);
+            int shared = sharedPrefix(previous, term);
+            byte[] suffix = term.substring(shared).getBytes(StandardCharsets.UTF_8);
+            writeVarint(out, shared);
+            writeVarint(out, suffix.length);
+            out.write(suffix);
+            writeVarint(out, index.docFreq(t));
+            writeVarint(out, postingLengths[t]);
+            writeVarint(out, freqLengths[t]);
+            writeVarint(out, index.maxFreq(t));
+            writeVarint(out, index.minLength(t));
+            previous = term;
+        }
+        for (int id = 0; id < numSongs; id++) {
+            writeVarint(out, index.docLength(id));
+        }
+        postingBytes.writeTo(out);
+        CRC32 crc = new CRC32();
+        crc.update(body.toByteArray());
+
+        DataOutputStream header = new DataOutputStream(stream);
+        header.writeInt(MAGIC);
+        header.writeInt(VERSION);
+        header.writeInt(numSongs);
+        header.writeInt(index.numTerms());
+        header.writeLong(fingerprint);
+        header.writeLong(crc.getValue());
+        body.writeTo(header);
+        header.flush();
+    }
+
+    /**
+     * A fingerprint of the songs an index is built from, it changes if a song is added, removed, edited or moved,
+     * so an index saved for an older song file is not used. It is a hash, not a cryptographic one
+     *
+     * @param songs in song ID order
+     * @return the fingerprint
+     */
+    public static long fingerprint(Song[] songs) {
+        long hash = songs.length;
+        for (Song song : songs) {
+            hash = hash * 1000003 + song.getArtist().hashCode();
+            hash = hash * 1000003 + song.getTitle().hashCode();
+            hash = hash * 1000003 + song.getLyrics().hashCode();
+        }
+        return hash;
+    }
+
+    /**
+     * Memory map an index file
+     *
+     * @param file
+     * @param numSongs the number of songs the index must have been built from
+     * @param fingerprint of the songs the index must have been built from
+     * @return the index, or null if the file is not a valid index for those songs
+     * @throws IOException
+     */
+    public static LyricsIndex map(File file, int numSongs, long fingerprint) throws IOException {
+        MappedByteBuffer buf;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+                FileChannel channel = raf.getChannel()) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                return null;
+            }
+            // the mapping stays valid after the channel is closed
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        return read(buf, numSongs, fingerprint);
+    }
+
+    /**
+     * Read an index in the file layout from a buffer, the posting lists are
+     * left in the buffer and decoded when they are asked for
+     *
+     * @param buf holds the index starting at position 0
+     * @param numSongs the number of songs the index must have been built from
+     * @param fingerprint of the songs the index must have been built from
+     * @return the index, or null if the buffer is not a valid index for those songs, or is damaged or cut short
+     */
+    static LyricsIndex read(ByteBuffer buf, int numSongs, long fingerprint) {
+        int limit = buf.limit();
+        if (limit < HEADER_BYTES || buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION
+                || buf.getInt(8) != numSongs || buf.getLong(16) != fingerprint) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buf.duplicate().position(HEADER_BYTES));
+        if (crc.getValue() != buf.getLong(24)) {
+            return null;
+        }
+
+        // each term takes at least 7 bytes of the dictionary
+        int numTerms = buf.getInt(12);
+        if (numTerms < 0 || numTerms > limit / 7) {
+            return null;
+        }
+        try {
+            String[] terms = new String[numTerms];
+            int[] docFreqs = new int[numTerms];
+            int[] postingLengths = new int[numTerms];
+            int[] freqLengths = new int[numTerms];
+            int[] maxFreqs = new int[numTerms];
+            int[] minLengths = new int[numTerms];
+            int[] pos = {HEADER_BYTES};
+            String previous = "";
+            byte[] suffix = new byte[64];
+            for (int t = 0; t < numTerms; t++) {
+                int shared = readVarint(buf, pos);
+                int suffixLength = readVarint(buf, pos);
+                if (shared < 0 || shared > previous.length() || suffixLength < 0 || suffixLength > limit - pos[0]) {
+                    return null;
+                }
+                if (suffix.length < suffixLength) {
+                    suffix = new byte[suffixLength];
+                }
+                buf.get(pos[0], suffix, 0, suffixLength);
+                pos[0] += suffixLength;
+                terms[t] = previous.substring(0, shared)
+                        + new String(suffix, 0, suffixLength, StandardCharsets.UTF_8);
+                docFreqs[t] = readVarint(buf, pos);
+                postingLengths[t] = readVarint(buf, pos);
+                freqLengths[t] = readVarint(buf, pos);
+                maxFreqs[t] = readVarint(buf, pos);
+                minLengths[t] = readVarint(buf, pos);
+                // every ID and frequency takes at least one byte
+                if (docFreqs[t] < 0 || postingLengths[t] < docFreqs[t] || freqLengths[t] < docFreqs[t]) {
+                    return null;
+                }
+                previous = terms[t];
+            }
+            if (numSongs > limit - pos[0]) {
+                return null;
+            }
+            int[] docLengths = new int[numSongs];
+            for (int id = 0; id < numSongs; id++) {
+                docLengths[id] = readVarint(buf, pos);
+            }
+
+            // posting lists start right after the document lengths, each term's frequencies right after its list
+            int[] offsets = new int[numTerms];
+            int[] freqOffsets = new int[numTerms];
+            long offset = pos[0];
+            for (int t = 0; t < numTerms; t++) {
+                offsets[t] = (int) offset;
+                freqOffsets[t] = (int) (offset + postingLengths[t]);
+                offset += (long) postingLengths[t] + freqLengths[t];
+                if (offset > limit) {
+                    return null;
+                }
+            }
+            if (offset != limit) {
+                return null;
+            }
+            return new LyricsIndex(terms, buf, offsets, freqOffsets, docFreqs, maxFreqs, minLengths, docLengths);
+        } catch (IndexOutOfBoundsException | BufferUnderflowException ex) {
+            // a varint ran past the end
+            return null;
+        }
+    }
+
+    /**
+     * Decode one delta/varint posting list. Only uses absolute gets, so
+     * many threads can decode from the same buffer
+     *
+     * @param buf the mapped file
+     * @param offset where the list starts
+     * @param count number of song IDs in the list
+     * @return the sorted song IDs
+     */
+    static int[] decodePostings(ByteBuffer buf, int offset, int count) {
+        int[] ids = new int[count];
+        int[] pos = {offset};
+        int previous = 0;
+        for (int i = 0; i < count; i++) {
+            previous += readVarint(buf, pos);
+            ids[i] = previous;
+        }
+        return ids;
+    }
+
+    /**
+     * Decode the frequencies of one posting list
+     *
+     * @param buf the mapped file
+     * @param offset where the frequencies start
+     * @param count number of songs in the list
+     * @return the times the term is in each song, in the order of the list
+     */
+    static int[] decodeFrequencies(ByteBuffer buf, int offset, int count) {
+        int[] freqs = new int[count];
+        int[] pos = {offset};
+        for (int i = 0; i < count; i++) {
+            freqs[i] = readVarint(buf, pos);
+        }
+        return freqs;
+    }
+
+    // number of leading chars two strings have in common
+    private static int sharedPrefix(String a, String b) {
+        int n = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < n && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        return i;
+    }
+
+    // 7 bits per byte, high bit set on all but the last byte
+    static void writeVarint(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    // reads the varint at pos[0] and moves pos[0] past it
+    static int readVarint(ByteBuffer buf, int[] pos) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buf.get(pos[0]++);
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+}
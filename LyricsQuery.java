@@ -0,0 +1,385 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A boolean query over the lyrics, artist and title words of the songs,
+ * such as
+ *   love AND (heart OR night) NOT rain artist:beatles
+ *
+ * Words next to each other must all match, as in SearchByLyricsWords.search.
+ * OR matches either side, NOT or a leading - leaves out songs that match
+ * what follows, and parentheses group. NOT binds tightest, then AND, then
+ * OR, and the operators must be in upper case so the lower case words are
+ * still searched for. artist:word and title:word match songs with that word
+ * in their artist or title.
+ *
+ * Parentheses and NOTs can be nested at most MAX_DEPTH deep, which keeps
+ * parsing and evaluating, both recursive, well inside the thread's stack.
+ *
+ * Words are split the way the lyrics were, so "don't" is "don" and "t".
+ * Common words and single letters are not in the lyrics index and are left
+ * out of the query, a lyrics word that is in no song matches no song.
+ *
+ * A query is parsed once and evaluated on each segment of the index, every
+ * operator is a merge of sorted song ID lists: AND intersects, OR is a
+ * union and NOT a difference, so each costs about the length of its lists.
+ *
+ * @author David Heywood
+ */
+public class LyricsQuery {
+
+    /**
+     * most parentheses and NOTs one inside another
+     */
+    public static final int MAX_DEPTH = 64;
+
+    private final Node root; // null if the query has no words that are searched for
+
+    private LyricsQuery(Node root) {
+        this.root = root;
+    }
+
+    /**
+     * @param query
+     * @param commonWords words that are not in the lyrics index
+     * @return the parsed query
+     * @throws SyntaxException if the query is not well formed, such as a missing parenthesis
+     */
+    public static LyricsQuery parse(String query, Set<String> commonWords) {
+        Parser parser = new Parser(tokens(query), commonWords);
+        if (parser.tokens.isEmpty()) {
+            return new LyricsQuery(null);
+        }
+        Node root = parser.or();
+        if (parser.next < parser.tokens.size()) {
+            throw new SyntaxException("unexpected " + parser.tokens.get(parser.next) + " in query");
+        }
+        return new LyricsQuery(root);
+    }
+
+    /**
+     * the songs of one segment that match
+     *
+     * @param lyrics the segment's lyrics index
+     * @param fields the segment's artist and title index, from LyricsIndex.buildFields
+     * @param firstId the lowest song ID of the segment
+     * @param endId one past its highest song ID
+     * @param absent sorted IDs, which may be outside the segment, of songs that are not in it
+     * @return the sorted IDs of the matching songs
+     */
+    int[] evaluate(LyricsIndex lyrics, LyricsIndex fields, int firstId, int endId, int[] absent) {
+        return root == null ? new int[0] : root.evaluate(new Segment(lyrics, fields, firstId, endId, absent));
+    }
+
+    /**
+     * @return the query with every word and operator written out, such as to compare two queries
+     */
+    @Override
+    public String toString() {
+        return root == null ? "" : root.toString();
+    }
+
+    /**
+     * Thrown for a query that is not well formed, the message says what is wrong with it and can be shown to
+     * whoever wrote the query
+     */
+    public static final class SyntaxException extends IllegalArgumentException {
+
+        private static final long serialVersionUID = 1L;
+
+        SyntaxException(String message) {
+            super(message);
+        }
+    }
+
+    // split into words, parentheses and operators
+    private static List<String> tokens(String query) {
+        ArrayList<String> tokens = new ArrayList<String>();
+        int i = 0;
+        while (i < query.length()) {
+            char c = query.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '(' || c == ')') {
+                tokens.add(String.valueOf(c));
+                i++;
+            } else {
+                int start = i;
+                while (i < query.length() && !Character.isWhitespace(query.charAt(i))
+                        && query.charAt(i) != '(' && query.charAt(i) != ')') {
+                    i++;
+                }
+                tokens.add(query.substring(start, i));
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Recursive descent, one method for each level of precedence
+     */
+    private static final class Parser {
+
+        final List<String> tokens;
+        final Set<String> commonWords;
+        int next; // index of the next token
+        int depth; // parentheses and NOTs the next token is inside
+
+        Parser(List<String> tokens, Set<String> commonWords) {
+            this.tokens = tokens;
+            this.commonWords = commonWords;
+        }
+
+        boolean at(String token) {
+            return next < tokens.size() && tokens.get(next).equals(token);
+        }
+
+        // and { OR and }
+        Node or() {
+            ArrayList<Node> children = new ArrayList<Node>();
+            children.add(and());
+            while (at("OR")) {
+                next++;
+                children.add(and());
+            }
+            return Node.of(false, children);
+        }
+
+        // not { [AND] not }
+        Node and() {
+            ArrayList<Node> children = new ArrayList<Node>();
+            children.add(not());
+            while (next < tokens.size() && !at("OR") && !at(")")) {
+                if (at("AND")) {
+                    next++;
+                }
+                children.add(not());
+            }
+            return Node.of(true, children);
+        }
+
+        // NOT not | - not | -word | ( or ) | word
+        Node not() {
+            if (next == tokens.size()) {
+                throw new SyntaxException("query ends where a word was expected");
+            }
+            String token = tokens.get(next++);
+            if (token.equals("NOT") || token.equals("-")) {
+                enter();
+                Node child = not();
+                depth--;
+                return child == null ? null : new Not(child);
+            }
+            if (token.startsWith("-") && token.length() > 1) {
+                Node child = word(token.substring(1));
+                return child == null ? null : new Not(child);
+            }
+            if (token.equals("(")) {
+                enter();
+                Node child = or();
+                if (!at(")")) {
+                    throw new SyntaxException("missing ) in query");
+                }
+                next++;
+                depth--;
+                return child;
+            }
+            if (token.equals(")") || token.equals("AND") || token.equals("OR")) {
+                throw new SyntaxException("unexpected " + token + " in query");
+            }
+            return word(token);
+        }
+
+        void enter() {
+            if (++depth > MAX_DEPTH) {
+                throw new SyntaxException("query is nested more than " + MAX_DEPTH + " deep");
+            }
+        }
+
+        // a word or field:word, split into the terms it is indexed under and all of them must match
+        Node word(String token) {
+            String field = null;
+            int colon = token.indexOf(':');
+            if (colon >= 0) {
+                field = token.substring(0, colon + 1).toLowerCase();
+                if (!field.equals(LyricsIndex.ARTIST_FIELD) && !field.equals(LyricsIndex.TITLE_FIELD)) {
+                    throw new SyntaxException("unknown field " + token.substring(0, colon));
+                }
+                token = token.substring(colon + 1);
+            }
+            ArrayList<Node> terms = new ArrayList<Node>();
+            for (String word : LyricsIndex.words(token)) {
+                if (field != null ? !word.isEmpty() : LyricsIndex.isIndexed(word, commonWords)) {
+                    terms.add(new Term(field, word));
+                }
+            }
+            if (field != null && terms.isEmpty()) {
+                throw new SyntaxException(field + " needs a word");
+            }
+            return Node.of(true, terms);
+        }
+    }
+
+    /**
+     * what a node is evaluated against
+     */
+    private static final class Segment {
+
+        final LyricsIndex lyrics;
+        final LyricsIndex fields;
+        final int firstId;
+        final int endId;
+        final int[] absent;
+
+        Segment(LyricsIndex lyrics, LyricsIndex fields, int firstId, int endId, int[] absent) {
+            this.lyrics = lyrics;
+            this.fields = fields;
+            this.firstId = firstId;
+            this.endId = endId;
+            this.absent = absent;
+        }
+
+        // every ID of the segment, what NOT takes songs away from
+        int[] all() {
+            int[] ids = new int[endId - firstId];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = firstId + i;
+            }
+            return absent.length == 0 ? ids : LyricsIndex.difference(ids, absent);
+        }
+    }
+
+    private abstract static class Node {
+
+        /**
+         * @return the sorted IDs of the segment's songs that match, do not modify
+         */
+        abstract int[] evaluate(Segment segment);
+
+        // an AND or OR of the children that are not left out, null if they all are
+        static Node of(boolean and, List<Node> children) {
+            ArrayList<Node> kept = new ArrayList<Node>();
+            for (Node child : children) {
+                if (child != null) {
+                    kept.add(child);
+                }
+            }
+            if (kept.size() <= 1) {
+                return kept.isEmpty() ? null : kept.get(0);
+            }
+            Node[] nodes = kept.toArray(new Node[kept.size()]);
+            return and ? new And(nodes) : new Or(nodes);
+        }
+    }
+
+    private static final class Term extends Node {
+
+        final String field; // null for a lyrics word
+        final String word;
+
+        Term(String field, String word) {
+            this.field = field;
+            this.word = word;
+        }
+
+        @Override
+        int[] evaluate(Segment segment) {
+            int[] ids = field == null ? segment.lyrics.postings(word) : segment.fields.postings(field + word);
+            return ids == null ? new int[0] : ids;
+        }
+
+        @Override
+        public String toString() {
+            return field == null ? word : field + word;
+        }
+    }
+
+    private static final class And extends Node {
+
+        final Node[] children;
+
+        And(Node[] children) {
+            this.children = children;
+        }
+
+        /**
+         * the children that are not NOTs are intersected, shortest list first, then each NOT's songs are taken
+         * away, so "a NOT b" is one difference rather than a difference from every song
+         */
+        @Override
+        int[] evaluate(Segment segment) {
+            ArrayList<int[]> lists = new ArrayList<int[]>();
+            ArrayList<Node> excluded = new ArrayList<Node>();
+            for (Node child : children) {
+                if (child instanceof Not) {
+                    excluded.add(((Not) child).child);
+                } else {
+                    lists.add(child.evaluate(segment));
+                }
+            }
+            int[] result = lists.isEmpty() ? segment.all()
+                    : LyricsIndex.intersectAll(lists.toArray(new int[lists.size()][]));
+            for (int i = 0; i < excluded.size() && result.length > 0; i++) {
+                result = LyricsIndex.difference(result, excluded.get(i).evaluate(segment));
+            }
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("(");
+            for (int i = 0; i < children.length; i++) {
+                sb.append(i > 0 ? " AND " : "").append(children[i]);
+            }
+            return sb.append(')').toString();
+        }
+    }
+
+    private static final class Or extends Node {
+
+        final Node[] children;
+
+        Or(Node[] children) {
+            this.children = children;
+        }
+
+        @Override
+        int[] evaluate(Segment segment) {
+            int[][] lists = new int[children.length][];
+            for (int i = 0; i < children.length; i++) {
+                lists[i] = children[i].evaluate(segment);
+            }
+            return LyricsIndex.unionAll(lists);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("(");
+            for (int i = 0; i < children.length; i++) {
+                sb.append(i > 0 ? " OR " : "").append(children[i]);
+            }
+            return sb.append(')').toString();
+        }
+    }
+
+    private static final class Not extends Node {
+
+        final Node child;
+
+        Not(Node child) {
+            this.child = child;
+        }
+
+        // only used on its own or in an OR, an AND takes NOTs away from its other children itself
+        @Override
+        int[] evaluate(Segment segment) {
+            return LyricsIndex.difference(segment.all(), child.evaluate(segment));
+        }
+
+        @Override
+        public String toString() {
+            return "NOT " + child;
+        }
+    }
+}
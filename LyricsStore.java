@@ -0,0 +1,90 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Holds song lyrics as UTF-8 bytes in direct (off heap) buffers.
+ *
+ * Lyrics are most of a catalog by volume but only the lyrics searches read
+ * them. A Song that uses a store keeps just the offset and length of its
+ * lyrics and decodes them when getLyrics is called, so the lyrics text is not
+ * on the heap and is not scanned by the garbage collector.
+ *
+ * Lyrics are added while the songs are loaded, after that any number of
+ * threads can read them.
+ *
+ * @author David Heywood
+ */
+public class LyricsStore {
+
+    private static final int FIRST_CHUNK_SIZE = 1 << 20; // buffers double from 1MB
+    private static final int MAX_CHUNK_SIZE = 1 << 26;   // up to 64MB
+
+    // replaced, never changed, when a buffer is added so readers need no lock
+    private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+    private long totalBytes;
+
+    /**
+     * an empty store, lyrics are added to direct buffers
+     */
+    public LyricsStore() {
+    }
+
+    /**
+     * a store over lyrics that are already in a buffer, such as a memory
+     * mapped snapshot file, offsets into the buffer can be given to get.
+     * Lyrics added later go into new buffers
+     *
+     * @param region the lyrics bytes, from position 0 to the limit
+     */
+    public LyricsStore(ByteBuffer region) {
+        ByteBuffer full = region.duplicate();
+        full.position(full.limit()); // full, so add never writes into it
+        chunks = new ByteBuffer[]{full};
+        totalBytes = full.limit();
+    }
+
+    /**
+     * add the lyrics for one song
+     *
+     * @param bytes the lyrics in UTF-8
+     * @return the offset to give to get
+     */
+    public synchronized long add(byte[] bytes) {
+        ByteBuffer chunk = chunks.length == 0 ? null : chunks[chunks.length - 1];
+        if (chunk == null || chunk.remaining() < bytes.length) {
+            // a new buffer, lyrics never span two buffers
+            int chunkSize = chunk == null ? FIRST_CHUNK_SIZE
+                    : Math.max(FIRST_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, chunk.capacity() * 2));
+            chunk = ByteBuffer.allocateDirect(Math.max(chunkSize, bytes.length));
+            ByteBuffer[] more = Arrays.copyOf(chunks, chunks.length + 1);
+            more[chunks.length] = chunk;
+            chunks = more;
+        }
+        long offset = ((long) (chunks.length - 1) << 32) | chunk.position();
+        chunk.put(bytes);
+        totalBytes += bytes.length;
+        return offset;
+    }
+
+    /**
+     * decode the lyrics at an offset
+     *
+     * @param offset as returned by add
+     * @param byteLength length of the bytes that were added
+     * @return the lyrics
+     */
+    public String get(long offset, int byteLength) {
+        ByteBuffer chunk = chunks[(int) (offset >>> 32)];
+        byte[] bytes = new byte[byteLength];
+        chunk.get((int) offset, bytes); // absolute get, does not move the position
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the number of bytes of lyrics held off the heap
+     */
+    public synchronized long size() {
+        return totalBytes;
+    }
+}
@@ -0,0 +1,237 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Positional inverted index of the words in song lyrics, used for phrase searches.
+ *
+ * Unlike LyricsIndex every word is indexed, including common words and single
+ * letters, because they can be part of a phrase. For each term there is the
+ * sorted list of song IDs containing it, and for each of those songs the
+ * sorted char offsets where the term starts in the lower case lyrics. The
+ * offsets of all the songs in a term's list are packed into one int[].
+ * An index is not changed once it is built, withSong and concat make new
+ * ones.
+ *
+ * @author David Heywood
+ */
+public class PhraseIndex {
+
+    private final String[] terms;       // sorted term dictionary
+    private final int[][] songIds;      // songIds[t] = sorted IDs of the songs containing terms[t]
+    private final int[][] starts;       // starts[t][k] = where the offsets for songIds[t][k] begin in positions[t]
+    private final int[][] positions;    // positions[t] = char offsets of terms[t], song by song
+
+    private PhraseIndex(String[] terms, int[][] songIds, int[][] starts, int[][] positions) {
+        this.terms = terms;
+        this.songIds = songIds;
+        this.starts = starts;
+        this.positions = positions;
+    }
+
+    /**
+     * Build the index for an array of songs, the song IDs are the array indexes
+     *
+     * @param songs the songs to index
+     * @return the index
+     */
+    public static PhraseIndex build(Song[] songs) {
+        Map<String, TermBuilder> builders = new HashMap<String, TermBuilder>();
+        for (int id = 0; id < songs.length; id++) {
+            addWords(builders, id, songs[id]);
+        }
+        return fromBuilders(builders);
+    }
+
+    /**
+     * @return an index of no songs, to add songs to with withSong
+     */
+    public static PhraseIndex empty() {
+        return new PhraseIndex(new String[0], new int[0][], new int[0][], new int[0][]);
+    }
+
+    /**
+     * A new index with one more song, this one is not changed. The lists of the terms the song does not have are
+     * shared with this index, so the cost is the size of the dictionary and of the lists of the song's terms
+     *
+     * @param id the song's ID, higher than every ID already in the index
+     * @param song
+     * @return the new index
+     */
+    public PhraseIndex withSong(int id, Song song) {
+        Map<String, TermBuilder> builders = new HashMap<String, TermBuilder>();
+        addWords(builders, id, song);
+        return concat(this, fromBuilders(builders), null);
+    }
+
+    /**
+     * Join two indexes into one, every ID in first must be lower than every ID in second
+     *
+     * @param first
+     * @param second
+     * @param removed IDs to leave out, null for none
+     * @return the joined index
+     */
+    public static PhraseIndex concat(PhraseIndex first, PhraseIndex second, BitSet removed) {
+        ArrayList<String> terms = new ArrayList<String>(Math.max(first.terms.length, second.terms.length));
+        ArrayList<int[]> songIds = new ArrayList<int[]>();
+        ArrayList<int[]> starts = new ArrayList<int[]>();
+        ArrayList<int[]> positions = new ArrayList<int[]>();
+        int i = 0;
+        int j = 0;
+        while (i < first.terms.length || j < second.terms.length) {
+            int cmp = i == first.terms.length ? 1 : j == second.terms.length ? -1
+                    : first.terms[i].compareTo(second.terms[j]);
+            String term = cmp <= 0 ? first.terms[i] : second.terms[j];
+            if (cmp != 0 && (removed == null || removed.isEmpty())) { // only in one, its lists are shared
+                PhraseIndex from = cmp < 0 ? first : second;
+                int t = cmp < 0 ? i++ : j++;
+                terms.add(term);
+                songIds.add(from.songIds[t]);
+                starts.add(from.starts[t]);
+                positions.add(from.positions[t]);
+                continue;
+            }
+            TermBuilder builder = new TermBuilder();
+            if (cmp <= 0) {
+                first.copyTo(i++, builder, removed);
+            }
+            if (cmp >= 0) {
+                second.copyTo(j++, builder, removed);
+            }
+            if (builder.songIds.size > 0) { // a term of only removed songs is dropped
+                builder.starts.add(builder.positions.size);
+                terms.add(term);
+                songIds.add(builder.songIds.toArray());
+                starts.add(builder.starts.toArray());
+                positions.add(builder.positions.toArray());
+            }
+        }
+        return new PhraseIndex(terms.toArray(new String[terms.size()]), songIds.toArray(new int[terms.size()][]),
+                starts.toArray(new int[terms.size()][]), positions.toArray(new int[terms.size()][]));
+    }
+
+    // append term t's songs that are not removed to builder
+    private void copyTo(int t, TermBuilder builder, BitSet removed) {
+        for (int k = 0; k < songIds[t].length; k++) {
+            if (removed != null && removed.get(songIds[t][k])) {
+                continue;
+            }
+            builder.songIds.add(songIds[t][k]);
+            builder.starts.add(builder.positions.size);
+            for (int p = starts[t][k]; p < starts[t][k + 1]; p++) {
+                builder.positions.add(positions[t][p]);
+            }
+        }
+    }
+
+    // add the offsets of every word of the song's lyrics
+    private static void addWords(Map<String, TermBuilder> builders, int id, Song song) {
+        String lyrics = song.getLyrics().toLowerCase();
+        int i = 0;
+        while (i < lyrics.length()) {
+            // a word is a run of letters, the same split as LyricsIndex.words
+            if (!isLetter(lyrics.charAt(i))) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < lyrics.length() && isLetter(lyrics.charAt(i))) {
+                i++;
+            }
+            String word = lyrics.substring(start, i);
+            TermBuilder builder = builders.get(word);
+            if (builder == null) {
+                builder = new TermBuilder();
+                builders.put(word, builder);
+            }
+            builder.add(id, start);
+        }
+    }
+
+    private static PhraseIndex fromBuilders(Map<String, TermBuilder> builders) {
+        String[] terms = builders.keySet().toArray(new String[builders.size()]);
+        Arrays.sort(terms);
+        int[][] songIds = new int[terms.length][];
+        int[][] starts = new int[terms.length][];
+        int[][] positions = new int[terms.length][];
+        for (int t = 0; t < terms.length; t++) {
+            TermBuilder builder = builders.get(terms[t]);
+            builder.starts.add(builder.positions.size); // end of the last song's offsets
+            songIds[t] = builder.songIds.toArray();
+            starts[t] = builder.starts.toArray();
+            positions[t] = builder.positions.toArray();
+        }
+        return new PhraseIndex(terms, songIds, starts, positions);
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    /**
+     * Binary search the term dictionary
+     *
+     * @param term
+     * @return the term's ID, or -1 if it is not in the index
+     */
+    public int termId(String term) {
+        int termId = Arrays.binarySearch(terms, term);
+        return termId >= 0 ? termId : -1;
+    }
+
+    /**
+     * @param termId
+     * @return the sorted IDs of the songs containing the term, do not modify
+     */
+    public int[] songIds(int termId) {
+        return songIds[termId];
+    }
+
+    /**
+     * @param termId
+     * @return the offsets of the term in all its songs, do not modify
+     */
+    public int[] positions(int termId) {
+        return positions[termId];
+    }
+
+    /**
+     * @param termId
+     * @param k index into songIds(termId)
+     * @return where that song's offsets begin in positions(termId)
+     */
+    public int positionsFrom(int termId, int k) {
+        return starts[termId][k];
+    }
+
+    /**
+     * @param termId
+     * @param k index into songIds(termId)
+     * @return 1 past where that song's offsets end in positions(termId)
+     */
+    public int positionsTo(int termId, int k) {
+        return starts[termId][k + 1];
+    }
+
+    /**
+     * growing lists for one term while building
+     */
+    private static class TermBuilder {
+
+        LyricsIndex.IntList songIds = new LyricsIndex.IntList();
+        LyricsIndex.IntList starts = new LyricsIndex.IntList();
+        LyricsIndex.IntList positions = new LyricsIndex.IntList();
+
+        void add(int id, int offset) {
+            // songs are added in ID order, so a new song is never in the list yet
+            if (songIds.size == 0 || songIds.items[songIds.size - 1] != id) {
+                songIds.add(id);
+                starts.add(positions.size);
+            }
+            positions.add(offset);
+        }
+    }
+}
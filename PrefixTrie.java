@@ -0,0 +1,180 @@
+import java.util.function.IntFunction;
+
+/**
+ * Radix trie over a sorted list of keys, for prefix searches that cost the
+ * length of the prefix instead of a binary search with a string comparison
+ * at every step.
+ *
+ * The keys that start with a prefix are a range of the sorted list, and
+ * that range is all a node holds. A chain of nodes with one child each is
+ * stored as one node with a longer label, so there are fewer than two
+ * nodes per distinct key. The nodes are numbered breadth first, which puts
+ * each node's children next to each other, and kept in a few int arrays
+ * with the labels packed into one char[], so no objects are held per key.
+ *
+ * Keys are compared a char at a time, the same order as String.compareTo.
+ * A trie is never changed, it is built again when the keys change, so any
+ * number of threads can search one at once.
+ *
+ * @author David Heywood
+ */
+public class PrefixTrie {
+
+    private final char[] labels;     // the labels of all the nodes, one after another
+    private final int[] labelStart;  // node n's label is labels[labelStart[n]] to labels[labelStart[n + 1] - 1]
+    private final int[] firstChild;  // node n's children are nodes firstChild[n] to firstChild[n + 1] - 1
+    private final int[] first;       // node n's keys are first[n] to last[n] - 1 in the sorted list
+    private final int[] last;
+
+    /**
+     * @param keys sorted by String.compareTo, may repeat
+     */
+    public PrefixTrie(String[] keys) {
+        // nodes are added in the order they are numbered, a node's children are added when it is reached
+        LyricsIndex.IntList from = new LyricsIndex.IntList();
+        LyricsIndex.IntList to = new LyricsIndex.IntList();
+        LyricsIndex.IntList parentDepth = new LyricsIndex.IntList(); // length of the prefix before the node's label
+        LyricsIndex.IntList starts = new LyricsIndex.IntList();
+        LyricsIndex.IntList children = new LyricsIndex.IntList();
+        StringBuilder chars = new StringBuilder();
+
+        from.add(0);
+        to.add(keys.length);
+        parentDepth.add(0);
+        for (int n = 0; n < from.size; n++) {
+            int lo = from.items[n];
+            int hi = to.items[n];
+            starts.add(chars.length());
+            children.add(from.size);
+            if (lo == hi) {
+                continue; // no keys at all
+            }
+            // the keys are sorted, so the prefix they all share is the one the first and last share
+            String key = keys[lo];
+            int depth = commonPrefix(key, keys[hi - 1], parentDepth.items[n]);
+            chars.append(key, parentDepth.items[n], depth);
+
+            // keys that end here come first, then a child for each next char
+            int i = lo;
+            while (i < hi && keys[i].length() == depth) {
+                i++;
+            }
+            while (i < hi) {
+                char c = keys[i].charAt(depth);
+                int j = i + 1;
+                while (j < hi && keys[j].charAt(depth) == c) {
+                    j++;
+                }
+                from.add(i);
+                to.add(j);
+                parentDepth.add(depth);
+                i = j;
+            }
+        }
+        starts.add(chars.length());
+        children.add(from.size);
+
+        labels = chars.toString().toCharArray();
+        labelStart = starts.toArray();
+        firstChild = children.toArray();
+        first = from.toArray();
+        last = to.toArray();
+    }
+
+    // length of the prefix a and b share, they are known to share the first from chars
+    private static int commonPrefix(String a, String b, int from) {
+        int max = Math.min(a.length(), b.length());
+        int i = from;
+        while (i < max && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * find the keys that start with prefix, one node per step
+     *
+     * @param prefix
+     * @return {first match, 1 past the last match} in the sorted list, both equal if no match
+     */
+    public int[] range(String prefix) {
+        int node = 0;
+        int pos = 0; // chars of the prefix matched so far
+        for (;;) {
+            for (int c = labelStart[node]; c < labelStart[node + 1]; c++, pos++) {
+                if (pos == prefix.length()) {
+                    return new int[]{first[node], last[node]}; // the prefix ends inside the label
+                }
+                if (labels[c] != prefix.charAt(pos)) {
+                    return new int[]{first[node], first[node]};
+                }
+            }
+            if (pos == prefix.length()) {
+                return new int[]{first[node], last[node]};
+            }
+            // binary search the children for the one whose label starts with the next char
+            char c = prefix.charAt(pos);
+            int lo = firstChild[node];
+            int hi = firstChild[node + 1];
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (labels[labelStart[mid]] < c) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            if (lo == firstChild[node + 1] || labels[labelStart[lo]] != c) {
+                return new int[]{last[node], last[node]};
+            }
+            node = lo;
+        }
+    }
+
+    /**
+     * find the keys that start with prefix by binary searching the sorted keys themselves, for when there is no
+     * trie over them yet. The same range as range(prefix) on a trie of the keys
+     *
+     * @param keys key i of the sorted list
+     * @param size number of keys
+     * @param prefix
+     * @return {first match, 1 past the last match}, both equal if no match
+     */
+    public static int[] range(IntFunction<String> keys, int size, String prefix) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) { // the first key that is not before the prefix
+            int mid = (lo + hi) >>> 1;
+            if (keys.apply(mid).compareTo(prefix) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        int first = lo;
+        hi = size;
+        while (lo < hi) { // the keys from first on that start with the prefix come before all that don't
+            int mid = (lo + hi) >>> 1;
+            if (keys.apply(mid).startsWith(prefix)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return new int[]{first, lo};
+    }
+
+    /**
+     * @return the number of nodes
+     */
+    public int numNodes() {
+        return first.length;
+    }
+
+    /**
+     * @return roughly the bytes the arrays take
+     */
+    public long memoryBytes() {
+        return 2L * labels.length + 4L * (labelStart.length + firstChild.length + first.length + last.length);
+    }
+}
@@ -0,0 +1,234 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * A size bounded cache of query results, safe to use from many threads.
+ *
+ * Two eviction policies:
+ *   LRU - drop the least recently used result.
+ *   TINY_LFU - a simplified W-TinyLFU. New results go into a small LRU
+ *     window (1% of the capacity). When a result falls out of the window
+ *     it only replaces the least recently used result of the main LRU if
+ *     its query has been asked more often, as estimated by a count-min
+ *     sketch over recent queries. A burst of one-off queries then can not
+ *     push the popular results out.
+ *
+ * Results are computed outside the lock, so a slow query does not hold up
+ * the others. After invalidate, results computed from the old index are
+ * not stored.
+ *
+ * @author David Heywood
+ * @param <V> the result type
+ */
+public class QueryCache<V> {
+
+    /**
+     * how results are chosen for eviction
+     */
+    public enum Policy {
+        LRU, TINY_LFU
+    }
+
+    private final int capacity;
+    private final Policy policy;
+    private final LinkedHashMap<String, V> window; // every result for LRU, the admission window for TINY_LFU
+    private final LinkedHashMap<String, V> main;   // TINY_LFU only
+    private final int windowCapacity;
+    private final FrequencySketch sketch;          // TINY_LFU only
+    private long version;  // bumped by invalidate
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param capacity most results kept, 0 keeps nothing
+     * @param policy
+     */
+    public QueryCache(int capacity, Policy policy) {
+        this.capacity = Math.max(0, capacity);
+        this.policy = policy;
+        window = new LinkedHashMap<String, V>(16, 0.75f, true); // access order, eldest is least recently used
+        if (policy == Policy.TINY_LFU) {
+            windowCapacity = Math.max(1, this.capacity / 100);
+            main = new LinkedHashMap<String, V>(16, 0.75f, true);
+            sketch = new FrequencySketch(this.capacity);
+        } else {
+            windowCapacity = this.capacity;
+            main = null;
+            sketch = null;
+        }
+    }
+
+    /**
+     * the cached result for key, computing and caching it if it is not there
+     *
+     * @param key a normalized query, queries with the same result should have the same key
+     * @param compute computes the result for a key, must not return null
+     * @return the result, shared with other callers so it must not be changed
+     */
+    public V get(String key, Function<String, V> compute) {
+        long computedVersion;
+        synchronized (this) {
+            if (sketch != null) {
+                sketch.increment(key);
+            }
+            V value = window.get(key);
+            if (value == null && main != null) {
+                value = main.get(key);
+            }
+            if (value != null) {
+                hits++;
+                return value;
+            }
+            misses++;
+            computedVersion = version;
+        }
+        V value = compute.apply(key);
+        synchronized (this) {
+            if (computedVersion == version && capacity > 0) {
+                put(key, value);
+            }
+        }
+        return value;
+    }
+
+    // called holding the lock
+    private void put(String key, V value) {
+        if (main != null && main.containsKey(key)) { // another thread computed it first
+            return;
+        }
+        window.put(key, value);
+        if (window.size() <= windowCapacity) {
+            return;
+        }
+        Iterator<Map.Entry<String, V>> eldest = window.entrySet().iterator();
+        Map.Entry<String, V> candidate = eldest.next();
+        eldest.remove();
+        if (main == null) {
+            evictions++;
+            return;
+        }
+
+        // TinyLFU admission, the result leaving the window competes with the main victim
+        if (main.size() < capacity - windowCapacity) {
+            main.put(candidate.getKey(), candidate.getValue());
+            return;
+        }
+        Iterator<Map.Entry<String, V>> mainEldest = main.entrySet().iterator();
+        if (mainEldest.hasNext()) {
+            String victim = mainEldest.next().getKey();
+            if (sketch.frequency(candidate.getKey()) > sketch.frequency(victim)) {
+                mainEldest.remove();
+                main.put(candidate.getKey(), candidate.getValue());
+            }
+        }
+        evictions++;
+    }
+
+    /**
+     * drop every result, call this whenever the index changes
+     */
+    public synchronized void invalidate() {
+        version++;
+        window.clear();
+        if (main != null) {
+            main.clear();
+        }
+    }
+
+    public synchronized int size() {
+        return window.size() + (main == null ? 0 : main.size());
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return hits as a fraction of all lookups, 0 before any
+     */
+    public synchronized double hitRate() {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    public synchronized void resetStats() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    /**
+     * Count-min sketch of how often keys were asked for, 4 bit counters in
+     * 4 rows. Every counter is halved after 10 lookups per cache entry, so
+     * queries that were popular a long time ago fade out.
+     */
+    private static class FrequencySketch {
+
+        private static final int[] SEEDS = {0x97CB3127, 0xB3A9E1E5, 0xC2B2AE35, 0x85EBCA6B};
+        private static final int MAX_COUNT = 15;
+
+        private final byte[][] rows = new byte[SEEDS.length][];
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int capacity) {
+            int width = Integer.highestOneBit(Math.max(16, capacity) * 2 - 1); // a power of 2 >= capacity
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = new byte[width];
+            }
+            mask = width - 1;
+            sampleSize = 10 * Math.max(16, capacity);
+        }
+
+        private int index(int hash, int row) {
+            int h = hash * SEEDS[row];
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        void increment(String key) {
+            int hash = key.hashCode();
+            for (int i = 0; i < rows.length; i++) {
+                int j = index(hash, i);
+                if (rows[i][j] < MAX_COUNT) {
+                    rows[i][j]++;
+                }
+            }
+            if (++additions == sampleSize) {
+                for (byte[] row : rows) {
+                    for (int j = 0; j < row.length; j++) {
+                        row[j] >>= 1;
+                    }
+                }
+                additions /= 2;
+            }
+        }
+
+        int frequency(String key) {
+            int hash = key.hashCode();
+            int min = MAX_COUNT;
+            for (int i = 0; i < rows.length; i++) {
+                min = Math.min(min, rows[i][index(hash, i)]);
+            }
+            return min;
+        }
+    }
+}
@@ -25,6 +25,8 @@ public class RaggedArrayList<E> implements Iterable<E> {
     private Object[] l1Array;     
     private int l1NumUsed;
     private Comparator<E> comp;
+    // locate with binary search on both levels, false uses the linear scans
+    private boolean binarySearch = true;
 
     // create an empty list  always have at least
     //  1 second level array even if empty, makes code easier 
@@ -37,6 +39,35 @@ public class RaggedArrayList<E> implements Iterable<E> {
         comp = c;
     }
 
+    // bulk load a list from items that are already sorted by the comparator
+    // packs them into evenly filled level 2 arrays (each half full, as after
+    // a split) instead of doing an add() with a search and shift per item
+    RaggedArrayList(Comparator<E> c, E[] sorted){
+        int n = sorted.length;
+        // level 1 length, blocks get capacity l1Length and are filled to at
+        // most half, need fewer blocks than l1Length like add() keeps
+        int l1Length = MINIMUM_SIZE;
+        while ((long)(l1Length - 1) * (l1Length / 2) < n)
+            l1Length *= 2;
+        int half = l1Length / 2;
+        int numBlocks = Math.max(1, (n + half - 1) / half);
+
+        size = n;
+        l1Array = new Object[l1Length];
+        l1NumUsed = numBlocks;
+        comp = c;
+        int from = 0;
+        for (int i1 = 0; i1 < numBlocks; i1++) {
+            // spread the remainder so block sizes differ by at most 1
+            int to = (int)((long)n * (i1 + 1) / numBlocks);
+            L2Array l2Array = new L2Array(l1Length);
+            System.arraycopy(sorted, from, l2Array.items, 0, to - from);
+            l2Array.numUsed = to - from;
+            l1Array[i1] = l2Array;
+            from = to;
+        }
+    }
+
     // nested class for 2nd level arrays
     private class L2Array {
         public E[] items;  
@@ -49,6 +80,12 @@ public class RaggedArrayList<E> implements Iterable<E> {
         }
     }
 
+    // choose binary search (default) or the original linear scans for
+    // findFront/findEnd, so comparison counts of the two can be compared
+    public void setBinarySearch(boolean binarySearch){
+        this.binarySearch = binarySearch;
+    }
+
     //total size (number of entries) in the entire data structure
     public int size(){
         return size;
@@ -111,8 +148,16 @@ public class RaggedArrayList<E> implements Iterable<E> {
     // this could be an unused slot at the end of a level 2 array
     // (searches forwards)
     private ListLoc findFront(E item){
+        return findFront(item, comp);
+    }
+
+    // findFront with another comparator for the same order, so the list's
+    // own comparator is not shared by searches in different threads
+    private ListLoc findFront(E item, Comparator<E> comp){
         if (size == 0)                  // special case for empty list
             return new ListLoc(0,0);
+        if (binarySearch)
+            return binaryFindFront(item, comp);
 
         // linear search level 1, compare to last entry in each level 2 array
         int i1, i2;
@@ -143,8 +188,15 @@ public class RaggedArrayList<E> implements Iterable<E> {
     // this could be an unused slot at the end of a level 2 array
     // (searches the list backwards)
     private ListLoc findEnd(E item){
+        return findEnd(item, comp);
+    }
+
+    // findEnd with another comparator for the same order
+    private ListLoc findEnd(E item, Comparator<E> comp){
         if (size == 0)                  // special case for empty list
             return new ListLoc(0,0);
+        if (binarySearch)
+            return binaryFindEnd(item, comp);
 
         // linear search level 1 array backwards, 
         // compare to 1st entry in each level 2 array
@@ -167,12 +219,81 @@ public class RaggedArrayList<E> implements Iterable<E> {
         return new ListLoc(0,0);
     }
     
+    // binary search version of findFront, same result as the linear scan
+    // level 1: 1st block whose last entry is >= item
+    // level 2: 1st slot in that block that is >= item
+    private ListLoc binaryFindFront(E item, Comparator<E> comp){
+        int lo = 0, hi = l1NumUsed;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            L2Array l2Array = (L2Array)l1Array[mid];
+            if (comp.compare(item, l2Array.items[l2Array.numUsed-1]) <= 0)
+                hi = mid;
+            else
+                lo = mid + 1;
+        }
+        if (lo == l1NumUsed)  // past last item, 1 past end of last block
+            return new ListLoc(l1NumUsed-1,
+                    ((L2Array)l1Array[l1NumUsed-1]).numUsed);
+
+        L2Array l2Array = (L2Array)l1Array[lo];
+        int i1 = lo;
+        lo = 0;
+        hi = l2Array.numUsed - 1;  // last entry is known to be >= item
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (comp.compare(item, l2Array.items[mid]) <= 0)
+                hi = mid;
+            else
+                lo = mid + 1;
+        }
+        return new ListLoc(i1, lo);
+    }
+
+    // binary search version of findEnd, same result as the linear scan
+    // level 1: last block whose 1st entry is <= item
+    // level 2: 1st slot in that block that is > item
+    private ListLoc binaryFindEnd(E item, Comparator<E> comp){
+        int lo = 0, hi = l1NumUsed;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (comp.compare(item, ((L2Array)l1Array[mid]).items[0]) >= 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        if (lo == 0)  // item belongs before the 1st item on the list
+            return new ListLoc(0,0);
+
+        int i1 = lo - 1;
+        L2Array l2Array = (L2Array)l1Array[i1];
+        lo = 1;                    // 1st entry is known to be <= item
+        hi = l2Array.numUsed;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (comp.compare(item, l2Array.items[mid]) >= 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return new ListLoc(i1, lo);
+    }
+
     /** 
      * add object after any other matching values
      * findEnd will give the insertion position
      */
     boolean add(E item){
-        ListLoc loc = findEnd(item);  // insertion position
+        return add(item, comp);
+    }
+
+    /**
+     * add using c to find the position, for a list whose own comparator
+     * does not give a total order, such as one that only compares prefixes
+     * c must give the same order as the list's comparator
+     */
+    boolean add(E item, Comparator<E> c){
+        ListLoc loc = findEnd(item, c);  // insertion position
         L2Array l2Array = (L2Array)l1Array[loc.level1Index];
         
         // move up to insert
@@ -214,6 +335,100 @@ public class RaggedArrayList<E> implements Iterable<E> {
         return true;
     }
 
+    /**
+     * remove the item, the 1st one that compares equal and is equals() to it
+     * @param item
+     * @return true if it was found and removed
+     */
+    boolean remove(E item){
+        return remove(item, comp);
+    }
+
+    /**
+     * remove using c to find the item, see add(E, Comparator)
+     * @param item
+     * @param c
+     * @return true if it was found and removed
+     */
+    boolean remove(E item, Comparator<E> c){
+        ListLoc loc = findFront(item, c);
+        // step over items that compare equal but are different objects
+        for (int i = indexOf(loc); i < size; i++) {
+            L2Array l2Array = (L2Array)l1Array[loc.level1Index];
+            E found = l2Array.items[loc.level2Index];
+            if (c.compare(found, item) != 0)
+                return false;
+            if (found.equals(item)) {
+                removeAt(loc);
+                return true;
+            }
+            loc.moveToNext();
+        }
+        return false;
+    }
+
+    // remove the item at loc, shift down the rest of its block and merge
+    // the block with a neighbour once it is down to a quarter full
+    // returns the location of the item that followed the removed one
+    private ListLoc removeAt(ListLoc loc){
+        int index = indexOf(loc);
+        int i1 = loc.level1Index;
+        L2Array l2Array = (L2Array)l1Array[i1];
+        int pos = loc.level2Index;
+        System.arraycopy(l2Array.items, pos+1, l2Array.items, pos,
+                l2Array.numUsed-pos-1);
+        l2Array.numUsed--;
+        l2Array.items[l2Array.numUsed] = null;
+        size--;
+
+        if (l1NumUsed > 1 && l2Array.numUsed <= l2Array.items.length/4) {
+            // merge with the next block, or the previous one for the last
+            int left = i1+1 < l1NumUsed ? i1 : i1-1;
+            L2Array a = (L2Array)l1Array[left];
+            L2Array b = (L2Array)l1Array[left+1];
+            int total = a.numUsed + b.numUsed;
+            if (total < a.items.length) {          // b fits on the end of a
+                System.arraycopy(b.items, 0, a.items, a.numUsed, b.numUsed);
+                a.numUsed = total;
+                removeBlock(left+1);
+            } else if (total < b.items.length) {   // a fits on the front of b
+                System.arraycopy(b.items, 0, b.items, a.numUsed, b.numUsed);
+                System.arraycopy(a.items, 0, b.items, 0, a.numUsed);
+                b.numUsed = total;
+                removeBlock(left);
+            } else if (l2Array.numUsed == 0) {     // never keep an empty block
+                removeBlock(i1);
+            }
+        }
+        return locAt(index);
+    }
+
+    // take block i1 out of the level 1 array
+    private void removeBlock(int i1){
+        System.arraycopy(l1Array, i1+1, l1Array, i1, l1NumUsed-i1-1);
+        l1NumUsed--;
+        l1Array[l1NumUsed] = null;
+    }
+
+    // number of items before loc
+    private int indexOf(ListLoc loc){
+        int index = loc.level2Index;
+        for (int i1 = 0; i1 < loc.level1Index; i1++)
+            index += ((L2Array)l1Array[i1]).numUsed;
+        return index;
+    }
+
+    // location of the item with index items before it, or 1 past the end
+    // of the last block if index is size
+    private ListLoc locAt(int index){
+        int i1 = 0;
+        while (i1 < l1NumUsed-1 && index >= ((L2Array)l1Array[i1]).numUsed) {
+            index -= ((L2Array)l1Array[i1]).numUsed;
+            i1++;
+        }
+        return new ListLoc(i1, index);
+    }
+
     /**
      * check if list contains a match
      */
@@ -269,6 +484,124 @@ public class RaggedArrayList<E> implements Iterable<E> {
         return result;
     }
 
+    /**
+     * returns a read-only view of the elements that range from fromElement,
+     * inclusive, to toElement, exclusive
+     * nothing is copied, the view is just the two end locations, so it is
+     * only valid until the list is next modified
+     * @param fromElement
+     * @param toElement
+     * @return the view
+     */
+    public SubListView subListView(E fromElement, E toElement){
+        return subListView(fromElement, toElement, comp);
+    }
+
+    /**
+     * subListView that compares with c instead of the list's comparator
+     * c must give the same order as the list's comparator
+     * searching does not change the list, so any number of threads can
+     * call this at once, each with its own comparator
+     * @param fromElement
+     * @param toElement
+     * @param c
+     * @return the view
+     */
+    public SubListView subListView(E fromElement, E toElement, Comparator<E> c){
+        return new SubListView(findFront(fromElement, c), findFront(toElement, c));
+    }
+
+    /**
+     * returns a read-only view of the items at indexes fromIndex, inclusive,
+     * to toIndex, exclusive, such as a range found some other way than by
+     * comparing items
+     * locating an index only steps over whole level 2 arrays
+     * @param fromIndex
+     * @param toIndex
+     * @return the view
+     */
+    public SubListView subListView(int fromIndex, int toIndex){
+        return new SubListView(locAt(fromIndex), locAt(toIndex));
+    }
+
+    /**
+     * A range of this list between two ListLoc's
+     * supports iteration, size, toArray and paging without copying the list
+     */
+    public class SubListView implements Iterable<E> {
+        private final ListLoc from;  // 1st item in the range
+        private final ListLoc to;    // 1 past the last item in the range
+        private final int size;
+
+        SubListView(ListLoc from, ListLoc to) {
+            // an empty range if to comes before from
+            if (to.level1Index < from.level1Index || 
+                    (to.level1Index == from.level1Index && 
+                    to.level2Index < from.level2Index))
+                to = from;
+            this.from = from;
+            this.to = to;
+            // count whole blocks, then adjust for the partial end blocks
+            int cnt = to.level2Index - from.level2Index;
+            for (int i1 = from.level1Index; i1 < to.level1Index; i1++)
+                cnt += ((L2Array)l1Array[i1]).numUsed;
+            size = cnt;
+        }
+
+        // number of items in the range
+        public int size() {
+            return size;
+        }
+
+        /**
+         * returns an iterator over the range
+         */
+        public Iterator<E> iterator() {
+            return new Itr(from, to);
+        }
+
+        /**
+         * copy the range into the given array
+         * @param a - an array of the actual type and at least size() long
+         * @return the filled in array
+         */
+        public E[] toArray(E[] a) {
+            page(0, a);
+            return a;
+        }
+
+        /**
+         * copy one page of the range into the given array
+         * skips whole level 2 arrays to get to the start of the page
+         * @param start - index within the range of the 1st item to copy
+         * @param a - filled with up to a.length items
+         * @return the number of items copied
+         */
+        public int page(int start, E[] a) {
+            int remaining = Math.min(a.length, size - start);
+            if (start < 0 || remaining <= 0)
+                return 0;
+            // locate the start, a block at a time
+            int i1 = from.level1Index;
+            int i2 = from.level2Index + start;
+            while (i2 >= ((L2Array)l1Array[i1]).numUsed) {
+                i2 -= ((L2Array)l1Array[i1]).numUsed;
+                i1++;
+            }
+            // copy a block at a time
+            int cnt = 0;
+            while (cnt < remaining) {
+                L2Array l2Array = (L2Array)l1Array[i1];
+                int n = Math.min(remaining - cnt, l2Array.numUsed - i2);
+                System.arraycopy(l2Array.items, i2, a, cnt, n);
+                cnt += n;
+                i1++;
+                i2 = 0;
+            }
+            return cnt;
+        }
+    }
+
     /**
      * returns an iterator for this list
      */
@@ -283,15 +616,26 @@ public class RaggedArrayList<E> implements Iterable<E> {
      */
     private class Itr implements Iterator<E> {
         private ListLoc loc;
+        private ListLoc end;  // stop here, null to run to the end of the list
+        private int lastL1 = -1;  // where the item next() returned is, -1 if none
+        private int lastL2;
 
         Itr(){
             loc = new ListLoc(0, 0);
         }
 
+        // iterate over a range, used by SubListView
+        Itr(ListLoc from, ListLoc to){
+            loc = new ListLoc(from.level1Index, from.level2Index);
+            end = to;
+        }
+
         /**
          * check is more items
          */
         public boolean hasNext() {
+            if (end != null)
+                return !loc.equals(end);
             return loc.level1Index < l1NumUsed-1 || 
                     loc.level2Index < 
                     ((L2Array)l1Array[loc.level1Index]).numUsed;
@@ -306,15 +650,23 @@ public class RaggedArrayList<E> implements Iterable<E> {
             if (loc.level2Index >= l2Array.numUsed)
                 throw new IndexOutOfBoundsException();
             E val = l2Array.items[loc.level2Index]; 
+            lastL1 = loc.level1Index;
+            lastL2 = loc.level2Index;
             loc.moveToNext();
             return val;
         }
 
         /**
-         * Remove is not implemented. Just use this code.
+         * remove the item last returned by next
+         * a SubListView is read only, its iterators do not remove
          */
         public void remove() {
-            throw new UnsupportedOperationException();	
+            if (end != null)
+                throw new UnsupportedOperationException();
+            if (lastL1 < 0)
+                throw new IllegalStateException();
+            loc = removeAt(new ListLoc(lastL1, lastL2));
+            lastL1 = -1;
         }
 
     }
@@ -1,74 +1,130 @@
-import java.util.ArrayList;
+import java.io.IOException;
 import java.util.Arrays;
-import java.util.Comparator;
+import java.util.Collections;
+import java.util.List;
 
 /**
+ * The song array is in artist order, so a PrefixTrie over the artists in
+ * array order finds the range of songs for a prefix in one step per
+ * character. When a song is added or removed the collection replaces the
+ * array, and the first search that sees the new array starts building a
+ * trie for it on a background thread. Until that is ready searches binary
+ * search the array instead, so a search never builds a trie.
+ *
+ * fuzzySearch also finds artists that start with a misspelling of the
+ * prefix, by running a LevenshteinAutomaton over the artists in order.
  *
  * @author David Heywood
  */
 
 public class SearchByArtistPrefix {
 
-    private Song[] songs;  // keep a direct reference to the song array
+    private final SongCollection sc;  // its song array is replaced when songs are added or removed
+    private volatile ArtistTrie trie;   // for the song array it was built from
+    private final BackgroundRebuild trieBuilder = new BackgroundRebuild("artist trie builder", this::buildTrie);
     
     /**
      * constructor takes in a songCollection object
      * @param sc
      */
         public SearchByArtistPrefix(SongCollection sc) {
-        songs = sc.getAllSongs();
+        this.sc = sc;
+        trie = new ArtistTrie(sc.getAllSongs());
     }
 
     /**
-     * find all songs matching artist prefix uses binary search should operate in time log n + k (# matches)
+     * find all songs matching artist prefix, the trie finds the range in time proportional to the length of the
+     * prefix, plus k to copy the matches
      *
      * @param artistPrefix
      * @return
      */
     public Song[] search(String artistPrefix) {
-        ArrayList<Song> matches = new ArrayList<Song>(); // create a list for results
-        artistPrefix = artistPrefix.toLowerCase();
+        Song[] songs = sc.getAllSongs();
+        int[] range = range(songs, artistPrefix.toLowerCase());
+        // copy the slice of the song array that matches
+        return Arrays.copyOfRange(songs, range[0], range[1]);
+    }
 
-        Song key = new Song(artistPrefix, "dummy", "dummy");
-        Comparator<Song> cmp = new Song.CompareArtist(); // declaring a comparator for our Song type
-        ((CmpCnt) cmp).resetCmpCnt();
+    /**
+     * find all songs matching artist prefix without copying them
+     *
+     * @param artistPrefix
+     * @return a read only view of the matching slice of the song array
+     */
+    public List<Song> searchView(String artistPrefix) {
+        Song[] songs = sc.getAllSongs();
+        int[] range = range(songs, artistPrefix.toLowerCase());
+        return Collections.unmodifiableList(Arrays.asList(songs).subList(range[0], range[1]));
+    }
 
-        int index = Arrays.binarySearch(songs, key, cmp); // gets return value from array.binary search
+    /**
+     * find all songs whose artist starts with the prefix or with something within LevenshteinAutomaton.defaultEdits
+     * of it, so "beetles" finds "Beatles"
+     *
+     * @param artistPrefix
+     * @return the matching songs sorted by artist then title
+     */
+    public Song[] fuzzySearch(String artistPrefix) {
+        artistPrefix = artistPrefix.toLowerCase();
+        Song[] songs = sc.getAllSongs();
+        int[] ranges = new LevenshteinAutomaton(artistPrefix, LevenshteinAutomaton.defaultEdits(artistPrefix))
+                .matches(i -> songs[i].getArtistKey(), songs.length, true);
+        int total = 0;
+        for (int r = 0; r < ranges.length; r += 2) {
+            total += ranges[r + 1] - ranges[r];
+        }
+        Song[] sa = new Song[total];
+        int n = 0;
+        for (int r = 0; r < ranges.length; r += 2) {
+            System.arraycopy(songs, ranges[r], sa, n, ranges[r + 1] - ranges[r]);
+            n += ranges[r + 1] - ranges[r];
+        }
+        return sa;
+    }
 
-        if (index >= 0) { // this is the code for we found a match
-            System.out.println("match found at index " + index);
-            // find the first one by walking back in the array
-            while (index > 0 && cmp.compare(songs[index - 1], key) == 0) { // back up in the array
-                index--;
-            }
-            // build the arrayList of all matches
-            while (index < songs.length && songs[index].getArtist().toLowerCase().startsWith(artistPrefix)) {
-                matches.add(songs[index]);
-                index++;
-            }
-        } else {
-            index = -index + 1;
-            System.out.println("match not found, but would be at index " + index);
+    // the range of the artists that start with prefix, by the trie if it is for this array
+    private int[] range(Song[] songs, String prefix) {
+        ArtistTrie t = trie;
+        if (t.songs == songs) {
+            return t.trie.range(prefix);
+        }
+        trieBuilder.request();
+        return PrefixTrie.range(i -> songs[i].getArtistKey(), songs.length, prefix);
+    }
+
+    // runs on the builder thread, builds a trie over the current song array
+    private void buildTrie() {
+        Song[] songs = sc.getAllSongs();
+        if (trie.songs != songs) {
+            trie = new ArtistTrie(songs);
         }
-        // create an array that is the right size
-        Song[] sa = new Song[matches.size()];
-        // convert the arrayList to an array
-        sa = matches.toArray(sa);
+    }
 
-        // Print Statistics
-        // The number of Ssongs
-        System.out.println("The total number of songs is " + sa.length);
-        // Number of binary compares
-        System.out.println("It took " + ((CmpCnt) cmp).getCmpCnt() + " comparisons.");
+    /**
+     * a song array and the trie over its artists
+     */
+    private static class ArtistTrie {
 
-        return sa;
+        final Song[] songs;
+        final PrefixTrie trie;
+
+        ArtistTrie(Song[] songs) {
+            String[] keys = new String[songs.length];
+            for (int i = 0; i < songs.length; i++) {
+                keys[i] = songs[i].getArtistKey();
+            }
+            this.songs = songs;
+            this.trie = new PrefixTrie(keys);
+        }
     }
 
     /**
      * testing routine
      * @param args
+     * @throws IOException
      */
-        public static void main(String[] args) {
+        public static void main(String[] args) throws IOException {
         if ((args.length > 2)) {
             System.err.println("usage: prog songfile artist");
             System.exit(1);
@@ -78,9 +134,10 @@ public class SearchByArtistPrefix {
 
         System.out.println("searching for: " + "Joh");
         Song[] byArtistResult = sbap.search("Joh");
+        System.out.println("The total number of songs is " + byArtistResult.length);
 
         // to do: show first 10 songs
-        for (int i = 0; i < 10; i++) {            
+        for (int i = 0; i < Math.min(10, byArtistResult.length); i++) {            
             System.out.println(byArtistResult[i]);
         }
     }    
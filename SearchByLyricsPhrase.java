@@ -1,177 +1,396 @@
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
-import java.util.Map;
-import java.util.TreeMap;
-import java.util.TreeSet;
+import java.util.IdentityHashMap;
+import java.util.PriorityQueue;
 
 /**
  * Date April 27, 2015
+ * Each search keeps its state in local variables, so one instance can be
+ * searched from many threads at once. Songs are added and removed the same
+ * way as in SearchByLyricsWords: the index is a list of PhraseIndex
+ * segments over ranges of song IDs, added songs go into a small segment at
+ * the end, a removed song is only marked, and neighbours of about the same
+ * size are merged, leaving out the removed songs. Unlike there the merges
+ * are done by the writer, since addSong and removeSong change the index in
+ * place and must not run while a search does, SongSearch calls them holding
+ * its write lock.
  * @author David Heywood
  */
 public class SearchByLyricsPhrase {
-    
-    // array of songs where the lyrics of that song contains every word in the phrase being search for
-    private Song[] byLyricsResults;
-    private static TreeMap<Integer, TreeSet<Song>> phraseSongMap; // map of key song ranking and song sets
-    private TreeSet<Song> songMatch; // holds a song where the lyrics contains the phrase in order
-    private SearchByLyricsWords sblw;
-    private ArrayList<Song> songMatchList; // holds all songs where the lyrics contains the phrase in order
+
+    private static final int SMALL_SEGMENT_SONGS = 256; // songs added to a segment before it is closed
+    private static final int MERGE_RATIO = 2; // merge neighbours when the older is at most this many times larger
+
+    private Song[] songs;  // the song of each ID, the collection's array until a song is added
+    private int count; // number of IDs given out
+    private final int sortedIds; // IDs below this are in the songs' own order, added songs come after
+    private PhraseIndex[] indexes; // where each word is in each song's lyrics, one index per segment
+    private int[] firstIds; // lowest ID of each segment
+    private final BitSet removed = new BitSet(); // songs removed since their segment was last merged
+    private IdentityHashMap<Song, Integer> ids; // the ID of each song in the index, built by the first removeSong
 
     /**
-     * holds the ranking of song 
+     * a song that contains the phrase and its rank, smaller ranks are closer matches
      */
-    public int rank;     
+    public static class Match implements Comparable<Match> {
+
+        private final Song song;
+        private final int rank;
+
+        Match(Song song, int rank) {
+            this.song = song;
+            this.rank = rank;
+        }
+
+        public Song getSong() {
+            return song;
+        }
+
+        /**
+         * @return the number of chars from the start of the first word to the end of the last word
+         */
+        public int getRank() {
+            return rank;
+        }
+
+        /**
+         * by rank, then by the songs' own order
+         */
+        @Override
+        public int compareTo(Match m) {
+            if (rank != m.rank) {
+                return Integer.compare(rank, m.rank);
+            }
+            return song.compareTo(m.song);
+        }
+
+        @Override
+        public String toString() {
+            return rank + "  " + song;
+        }
+    }
 
     /**
      *
      * @param sc
      */
-        public SearchByLyricsPhrase(SongCollection sc) {
-        sblw = new SearchByLyricsWords(sc);
+    public SearchByLyricsPhrase(SongCollection sc) {
+        songs = sc.getAllSongs();
+        count = songs.length;
+        sortedIds = count;
+        indexes = new PhraseIndex[]{PhraseIndex.build(songs)};
+        firstIds = new int[]{0};
     }
 
     /**
+     * add a song, searches that start after this returns find it. Must not be called while a search runs
      *
-     * @param lyricsPhrase
-     * @return
+     * @param song
      */
-    public Song[] search(String lyricsPhrase) {
-        phraseSongMap = new TreeMap<>(); // holds Song objects and the ranks(key) for those Songs
-        byLyricsResults = sblw.search(lyricsPhrase); // uses search method in sblw class and returns the results
-        songMatchList = new ArrayList<>(); // holds all the Song objects with lyrics that match the phrase
-        for (Song s : byLyricsResults) { // grabs a Song object from byLyricsResults ArrayList to search
-            songMatch = new TreeSet<>(); // holds a Song ob ject where the lyrics contains the phrase in order
-            songMatch.clear(); // clears current Song object from the TreeSet
-            rank = 0; // initialize the rank
-            int fromIndex = 0; // holds the index value where the next search will start from
-            int indexVal = 0; // holds the index value of the word that was found           
-
-            String lyrics = s.getLyrics().toLowerCase(); // converts lyrics from song object to lower case
-            // ArrayList that holds all the indexs where the first word in the phrase was found
-            ArrayList<Integer> firstPhraseWord = new ArrayList<Integer>();
-            ArrayList<String> phrase = new ArrayList<String>(); // ArrayList that will hold the entire phrase
-            phrase.addAll(Arrays.asList(lyricsPhrase.split(" "))); // adds the phrase to the ArrayList
-            // findWord = single word out of lyricsPhrase to search for
-            String firstWord = phrase.get(0); // grabs the first word from the phrase ArrayList
-            for (int i = 0; i < lyrics.length(); i++) {
-                indexVal = lyrics.indexOf(firstWord, fromIndex); // find current word and return its index
-                fromIndex = indexVal + firstWord.length(); // sets the next starting index for search                
-                if (indexVal == -1) { // if indexVal == -1 search reached end of lyrics
-                    break;
-                } else if (lyrics.charAt(fromIndex) == 32) { // Checks if index after firstWord is a space
-                    firstPhraseWord.add(indexVal); // Adds the index value from every firstWord found in lyrics
+    public void addSong(Song song) {
+        int id = count;
+        if (id == songs.length) { // a new array, the collection's is never written to
+            songs = Arrays.copyOf(songs, Math.max(16, id * 2));
+        }
+        songs[id] = song;
+        count++;
+        int last = indexes.length - 1;
+        if (isOpen(last)) {
+            indexes[last] = indexes[last].withSong(id, song);
+        } else { // start a new small segment
+            indexes = Arrays.copyOf(indexes, last + 2);
+            indexes[last + 1] = PhraseIndex.empty().withSong(id, song);
+            firstIds = Arrays.copyOf(firstIds, last + 2);
+            firstIds[last + 1] = id;
+            mergeSegments();
+        }
+        if (ids != null) {
+            ids.put(song, id);
+        }
+    }
+
+    /**
+     * remove a song, it is marked as removed and left out of its segment when that is next merged. Must not be
+     * called while a search runs
+     *
+     * @param song the song object to remove
+     * @return true if the song was in the index
+     */
+    public boolean removeSong(Song song) {
+        if (ids == null) {
+            ids = new IdentityHashMap<Song, Integer>(2 * count);
+            for (int id = 0; id < count; id++) {
+                if (!removed.get(id)) {
+                    ids.put(songs[id], id);
                 }
             }
+        }
+        Integer id = ids.remove(song);
+        if (id == null) {
+            return false;
+        }
+        removed.set(id);
+        return true;
+    }
 
-            rank = rankSong(lyrics, phrase, firstPhraseWord); // calls rankSong to find smallest rank for this lyric
-            if (rank == 0) {
-                continue;
-            }
-            if (phraseSongMap.containsKey(rank)) { // if rank(key) already exists add song to rank(key)
-                songMatch = phraseSongMap.get(rank);
-                songMatch.add(s); // add Song object that matches phrase to SongMatch
-                songMatchList.add(s); // create a list of songMatches
-                phraseSongMap.put(rank, songMatch); // add rank(key) and Song object to TreeMap
-            } else {
-                songMatch.add(s); // add Song object that matches phrase to SongMatch
-                songMatchList.add(s); // create a list of songMatches
-                phraseSongMap.put(rank, songMatch); // add rank(key) and Song object to TreeMap
+    // merge closed neighbours until none are close enough in size, the merged songs that were removed are forgotten
+    private void mergeSegments() {
+        for (int i = mergeCandidate(); i >= 0; i = mergeCandidate()) {
+            int first = firstIds[i];
+            int end = i + 2 < firstIds.length ? firstIds[i + 2] : count;
+            PhraseIndex merged = PhraseIndex.concat(indexes[i], indexes[i + 1], removed);
+            PhraseIndex[] joined = new PhraseIndex[indexes.length - 1];
+            System.arraycopy(indexes, 0, joined, 0, i);
+            joined[i] = merged;
+            System.arraycopy(indexes, i + 2, joined, i + 1, indexes.length - i - 2);
+            int[] joinedIds = new int[joined.length];
+            System.arraycopy(firstIds, 0, joinedIds, 0, i + 1);
+            System.arraycopy(firstIds, i + 2, joinedIds, i + 1, firstIds.length - i - 2);
+            indexes = joined;
+            firstIds = joinedIds;
+            for (int id = removed.nextSetBit(first); id >= 0 && id < end; id = removed.nextSetBit(id + 1)) {
+                songs[id] = null;
             }
+            removed.clear(first, end);
         }
+    }
+
+    // number of song IDs segment i covers
+    private int size(int i) {
+        return (i + 1 < firstIds.length ? firstIds[i + 1] : count) - firstIds[i];
+    }
+
+    // segment i is the small one at the end and still takes added songs
+    private boolean isOpen(int i) {
+        return i > 0 && i == indexes.length - 1 && size(i) < SMALL_SEGMENT_SONGS;
+    }
 
-        Song[] results = new Song[songMatchList.size()]; // create Song[] size to hold list of matching songs
-        results = songMatchList.toArray(results); // copy contents of songMatchList ArrayList to Song[] results        
+    // the newest pair of closed neighbours close enough in size to merge, -1 if none
+    private int mergeCandidate() {
+        int closed = isOpen(indexes.length - 1) ? indexes.length - 1 : indexes.length;
+        for (int i = closed - 2; i >= 0; i--) {
+            if (size(i) <= MERGE_RATIO * size(i + 1)) {
+                return i;
+            }
+        }
+        return -1;
+    }
 
+    /**
+     * finds the songs whose lyrics contain the words of the phrase in order, using the word positions in the
+     * PhraseIndex so the lyrics themselves are never scanned
+     *
+     * @param lyricsPhrase
+     * @return the matching songs, sorted by artist then title
+     */
+    public Song[] search(String lyricsPhrase) {
+        Match[] matches = matches(lyricsPhrase);
+        Song[] results = new Song[matches.length];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = matches[i].getSong();
+        }
+        if (count > sortedIds) { // added songs are out of order, the rest are already sorted
+            Arrays.sort(results);
+        }
         return results;
     }
 
     /**
+     * like search, with the rank of each song
      *
-     * @param lyrics contains the lyrics from one song
-     * @param phrase contains the phrase being searched for in the lyrics
-     * @param firstPhraseWord contains all the indexes where the first word in the phrase was found in the lyrics
-     * @return the ranking for that lyrics
+     * @param lyricsPhrase
+     * @return the matching songs and their ranks, closest matches first
      */
-    public int rankSong(String lyrics, ArrayList<String> phrase, ArrayList<Integer> firstPhraseWord) {
-        int fromIndex = 0; // holds the index value where the next search will start from
-        int indexVal = 0; // holds the index value of the word that was found
-        int firstIndex = 0; // holds the index value of the first word found in the phrase
-        int lastIndex = 0; // holds the index value of the last word fond in the phrase
-
-        ArrayList<Integer> songRank = new ArrayList<Integer>();
-        for (int i = 0; i < firstPhraseWord.size(); i++) {
-            // sets starting search index by adding index value in firstPhraseWord to length of first word in phrase
-            fromIndex = firstPhraseWord.get(i) + phrase.get(0).length(); 
-            firstIndex = firstPhraseWord.get(i); // sets firstIndex value to be used to determine ranking
-            // skips first word in phrase. We already found all the indexes for first word which are contained
-            // in the ArrayList firstPhrasaeWord
-            for (int j = 1; j < phrase.size(); j++) {
-                // findWord = next word out of lyricsPhrase to search for
-                String findWord = phrase.get(j);
-                do {
-                    indexVal = lyrics.indexOf(findWord, fromIndex); // find current word and return its index
-                    if (indexVal == -1) { // if indexVal == -1 we have reached the end of the lyrics
-                        break;
-                    }
-                    // change starting index from current index + length of search word
-                    fromIndex = indexVal + findWord.length();
-                  
-                    if (indexVal == -1) { // if indexVal == -1 we have reached the end of the lyrics
-                        break;
+    public Match[] rankedSearch(String lyricsPhrase) {
+        Match[] matches = matches(lyricsPhrase);
+        Arrays.sort(matches);
+        return matches;
+    }
+
+    /**
+     * the k closest matches, the same as the first k of rankedSearch. Only the best k so far are kept, in a heap,
+     * and a song stops being ranked as soon as its spans can not beat the worst of them, so for a common phrase
+     * the work after the candidate songs are found depends on k rather than on the number of matches
+     *
+     * @param lyricsPhrase
+     * @param k number of matches wanted
+     * @return up to k matching songs and their ranks, closest matches first
+     */
+    public Match[] topSearch(String lyricsPhrase, int k) {
+        if (k <= 0) {
+            return new Match[0];
+        }
+        PriorityQueue<Match> best = new PriorityQueue<Match>(k, Collections.reverseOrder()); // worst match on top
+        matches(lyricsPhrase, best, k);
+        Match[] top = best.toArray(new Match[best.size()]);
+        Arrays.sort(top);
+        return top;
+    }
+
+    // the matches in song ID order
+    private Match[] matches(String lyricsPhrase) {
+        return matches(lyricsPhrase, null, 0);
+    }
+
+    /**
+     * find the matches, either all of them or the best k
+     *
+     * @param lyricsPhrase
+     * @param best null to return every match, otherwise the best k are kept in this heap, worst on top
+     * @param topK size of the heap
+     * @return the matches in song ID order, empty when they go into best
+     */
+    private Match[] matches(String lyricsPhrase, PriorityQueue<Match> best, int topK) {
+        ArrayList<Match> matches = new ArrayList<Match>(); // songs where the lyrics contain the phrase in order
+        ArrayList<String> phrase = new ArrayList<String>(); // ArrayList that will hold the entire phrase
+        for (String word : LyricsIndex.words(lyricsPhrase)) { // split the same way as the lyrics were
+            if (!word.isEmpty()) {
+                phrase.add(word);
+            }
+        }
+        if (phrase.isEmpty()) {
+            return new Match[0];
+        }
+
+        for (PhraseIndex phraseIndex : indexes) { // segments are in ID order
+            matches(phraseIndex, phrase, best, topK, matches);
+        }
+        return matches.toArray(new Match[matches.size()]);
+    }
+
+    // the matches in one segment, added to matches or to best
+    private void matches(PhraseIndex phraseIndex, ArrayList<String> phrase, PriorityQueue<Match> best, int topK,
+            ArrayList<Match> matches) {
+        int numWords = phrase.size();
+        int[] termIds = new int[numWords];
+        int[][] songLists = new int[numWords][];
+        for (int j = 0; j < numWords; j++) {
+            termIds[j] = phraseIndex.termId(phrase.get(j));
+            if (termIds[j] < 0) { // a word that is in no song of the segment, so none of them has the phrase
+                return;
+            }
+            songLists[j] = phraseIndex.songIds(termIds[j]);
+        }
+        // songs that contain every word of the phrase
+        int[] candidates = LyricsIndex.intersectAll(songLists.clone());
+
+        int[] k = new int[numWords]; // where the candidate is in each word's song list
+        int[][] positions = new int[numWords][]; // offsets of each word in all its songs
+        int[] from = new int[numWords]; // range of the candidate's offsets in positions
+        int[] to = new int[numWords];
+        for (int j = 0; j < numWords; j++) {
+            positions[j] = phraseIndex.positions(termIds[j]);
+        }
+        for (int id : candidates) { // candidates are in ID order, so k only moves forward
+            if (removed.get(id)) {
+                continue;
+            }
+            for (int j = 0; j < numWords; j++) {
+                k[j] = LyricsIndex.gallop(songLists[j], k[j], id);
+                from[j] = phraseIndex.positionsFrom(termIds[j], k[j]);
+                to[j] = phraseIndex.positionsTo(termIds[j], k[j]);
+            }
+
+            // songs below sortedIds are tried in song order, so one that only ties the worst of the best k loses to
+            // it. An added song can come before it in song order, so a tie is ranked too and the order decides
+            int bound = best != null && best.size() == topK ? best.peek().getRank() : 0;
+            if (bound > 0 && id >= sortedIds) {
+                bound++;
+            }
+            int rank = rankSong(positions, from, to, phrase.get(numWords - 1).length(), bound); // smallest rank
+            if (rank == 0) {
+                continue;
+            }
+            Match match = new Match(songs[id], rank);
+            if (best == null) {
+                matches.add(match);
+            } else {
+                if (best.size() == topK) {
+                    if (match.compareTo(best.peek()) >= 0) {
+                        continue;
                     }
-                // continue while loop if index after word found does not contain a space(32), period(46), LF(10),
-                // apostrophe(44) or a question mark(63)
-                } while (lyrics.charAt(fromIndex) != 32 && lyrics.charAt(fromIndex) != 46
-                        && lyrics.charAt(fromIndex) != 10 && lyrics.charAt(fromIndex) != 44
-                        && lyrics.charAt(fromIndex) != 63);
-
-                // checks to see if beginning index for ranking has been set already
-                if (indexVal == -1) { // if indexVal == -1 you reached the end of the lyrics
-                    break; // break out of the loop
+                    best.poll();
                 }
+                best.add(match);
+            }
+        }
+    }
 
-                lastIndex = fromIndex; // set index value for last index
+    /**
+     * The rank is the number of chars from the start of the first word to the end of the last word, for the
+     * shortest place in the lyrics where the words of the phrase appear in order. For each offset of the first word
+     * the next offset of each following word is found, merging the sorted offset lists
+     *
+     * @param positions positions[j] holds the offsets of word j of the phrase
+     * @param from from[j] is where this song's offsets of word j begin in positions[j]
+     * @param to to[j] is 1 past where they end
+     * @param lastWordLength length of the last word in the phrase
+     * @return the ranking for that lyrics, 0 if the phrase is not in the lyrics
+     */
+    public static int rankSong(int[][] positions, int[] from, int[] to, int lastWordLength) {
+        return rankSong(positions, from, to, lastWordLength, 0);
+    }
 
-                if (indexVal == -1) { // if indexVal == -1 you reached the end of the lyrics
-                    continue; // continue with loop
+    /**
+     * rankSong that only looks for spans shorter than bound. A span is given up as soon as the words matched so far
+     * already reach bound, since the words still to come can only make it longer
+     *
+     * @param positions positions[j] holds the offsets of word j of the phrase
+     * @param from from[j] is where this song's offsets of word j begin in positions[j]
+     * @param to to[j] is 1 past where they end
+     * @param lastWordLength length of the last word in the phrase
+     * @param bound only spans shorter than this count, 0 for no bound
+     * @return the ranking for that lyrics, 0 if the phrase is not in the lyrics with a span under bound
+     */
+    public static int rankSong(int[][] positions, int[] from, int[] to, int lastWordLength, int bound) {
+        int best = bound; // 0 while there is no bound and nothing has been found
+        int[] next = from.clone(); // next offset of each word that could follow the previous word
+        firstWords:
+        for (int f = from[0]; f < to[0]; f++) {
+            int first = positions[0][f];
+            int previous = first; // offset of the word matched before this one
+            for (int j = 1; j < positions.length; j++) {
+                // as first moves forward so does every later word, so next[j] never has to back up
+                while (next[j] < to[j] && positions[j][next[j]] <= previous) {
+                    next[j]++;
+                }
+                if (next[j] == to[j]) { // ran out of word j, later first words can't finish either
+                    return best == bound ? 0 : best;
                 }
-                if (j == phrase.size() - 1) { // if j == phrase.size() - 1 we have reached the end of the phrase
-                    rank = lastIndex - firstIndex; // determines this songs rank
-                    songRank.add(rank); // add ranking of song to lyricsRank ArrayList
+                previous = positions[j][next[j]];
+                if (best != 0 && previous + lastWordLength - first >= best) { // can't beat best from this first
+                    continue firstWords;
                 }
             }
+            int span = previous + lastWordLength - first;
+            if (best == 0 || span < best) {
+                best = span;
+            }
         }
-        if (songRank.isEmpty()) { // if songRank.isEmpty() add zero to songRank so the return does not fail
-            songRank.add(0);
-        } else {
-            Collections.sort(songRank); // sort the song rankings into a natural order
-        }
-        return songRank.get(0); // return songRank[0] which will be the lowest ranking for the song
+        return best == bound ? 0 : best;
     }
 
     /**
      *
      * @param args
+     * @throws IOException
      */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
         SongCollection sc = new SongCollection("allSongs.txt"); // place songs in text file into SongCollection
         String phraseToSearch = "she loves you"; // set phrase to search for
         SearchByLyricsPhrase sblp = new SearchByLyricsPhrase(sc);
-        // calls search method with returns an arr of Songs that contain the phrase being serached for
-        Song[] byTitlePhraseResult = sblp.search(phraseToSearch);
+        // the 10 songs that contain the phrase most closely
+        Match[] byTitlePhraseResult = sblp.topSearch(phraseToSearch, 10);
         System.out.println("\nsearching for: " + phraseToSearch);
-        System.out.println("Total songs is " + byTitlePhraseResult.length + ", first 10 matches:");
+        System.out.println("Total songs is " + sblp.search(phraseToSearch).length + ", first 10 matches:");
         System.out.println("rank    artist      title");
         
-        // for loop that prints the song rankings and the songs that have that rank
-        for (Map.Entry<Integer, TreeSet<Song>> entry : phraseSongMap.entrySet()) {
-            String key = entry.getKey().toString();
-            TreeSet<Song> value = entry.getValue();            
-            for (Song s : value) {
-                System.out.println(key + "  " + s);
-            }
+        for (int i = 0; i < Math.min(10, byTitlePhraseResult.length); i++) {
+            System.out.println(byTitlePhraseResult[i]);
         }
     }
 }
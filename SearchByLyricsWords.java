@@ -1,23 +1,99 @@
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
-import java.util.Collection;
-import java.util.Iterator;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.PriorityQueue;
 import java.util.Scanner;
-import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
+ * Songs can be added and removed after the index is built. An added song
+ * gets the next unused ID and a removed song's ID is not used again, so the
+ * IDs of the other songs never change.
+ *
+ * The index is a list of segments, each an unchanging LyricsIndex over a
+ * range of song IDs. The first segment holds the songs the index was built
+ * from, added songs go into a small segment at the end until it is full,
+ * and a removed song is only marked as deleted. A search looks in every
+ * segment and joins the results. When small segments pile up a background
+ * thread merges neighbours of about the same size, dropping deleted songs,
+ * so there are only ever a few segments. A merged segment no longer holds
+ * its deleted songs, so they are no longer marked either, and only the
+ * songs removed since their segment was last merged are. The IDs merges
+ * have left out are kept apart, a NOT in a query is the only search that
+ * has to know about them.
+ *
+ * Each segment also has an index of the words of its songs' artists and
+ * titles, for the artist: and title: words of a LyricsQuery.
+ *
+ * All of this is held in one Segments object that is replaced, never
+ * changed, so a search reads one consistent version without a lock, and
+ * adding, removing or merging never makes a search wait.
  *
  * @author David Heywood
  */
 public class SearchByLyricsWords {
 
-    private Song[] songs;  // keep a direct reference to the song array    
-    private TreeMap<String, TreeSet<Song>> lyricsSongMap; // map of key lyric words and song sets
-    private TreeSet<String> commonWords;  // keep a direct reference to common words found in songs   
+    private static final int SMALL_SEGMENT_SONGS = 256; // songs added to a segment before it is closed
+    private static final int MERGE_RATIO = 2; // merge neighbours when the older is at most this many times larger
+    private static final double K1 = 1.2; // BM25, how quickly more of the same word stops adding to the score
+    private static final double B = 0.75; // BM25, how much a song's length counts against it
+
+    private volatile Segments segments; // the current version, what searches read
+    private final Object writeLock = new Object(); // taken by writers and the merger, never by searches
+    private ExecutorService merger; // started when the first small segment is closed
+    private IdentityHashMap<Song, Integer> ids; // the ID of each song in the index, built by the first removeSong
+    private TreeSet<String> commonWords;  // keep a direct reference to common words found in songs
     private int insertion = 0;
+    private int buildThreads = 1; // number of threads used to build the index
+
+    /**
+     * a song and how well it matches the search words, larger scores are closer matches
+     */
+    public static class Match implements Comparable<Match> {
+
+        private final Song song;
+        private final double score;
+
+        Match(Song song, double score) {
+            this.song = song;
+            this.score = score;
+        }
+
+        public Song getSong() {
+            return song;
+        }
+
+        /**
+         * @return the song's BM25 score for the search words
+         */
+        public double getScore() {
+            return score;
+        }
+
+        /**
+         * by score, highest first, then by the songs' own order
+         */
+        @Override
+        public int compareTo(Match m) {
+            if (score != m.score) {
+                return Double.compare(m.score, score);
+            }
+            return song.compareTo(m.song);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.3f  %s", score, song);
+        }
+    }
 
     /**
      * constructor takes in a songCollection object
@@ -25,10 +101,66 @@ public class SearchByLyricsWords {
      * @param sc a variable that holds allSongs.txt
      */
     public SearchByLyricsWords(SongCollection sc) {
-        songs = sc.getAllSongs(); // a copy of all the songs in allSongs.txt
-        lyricsSongMap = new TreeMap<String, TreeSet<Song>>();
         createCommonWordsTreeSet();
-        createSongLyricsTreeSet();
+        createLyricsIndex(sc.getAllSongs()); // a copy of all the songs in allSongs.txt
+        statisticsGathering();
+    }
+
+    /**
+     * constructor for an index that was already built, such as from a snapshot
+     *
+     * @param sc a variable that holds allSongs.txt
+     * @param lyricsIndex index built from sc's songs, song IDs are indexes into sc.getAllSongs()
+     */
+    public SearchByLyricsWords(SongCollection sc, LyricsIndex lyricsIndex) {
+        createCommonWordsTreeSet();
+        segments = new Segments(sc.getAllSongs(), lyricsIndex);
+        insertion = lyricsIndex.numPostings();
+    }
+
+    /**
+     * constructor that builds the index using several threads, the index is the same as the one built by a single
+     * thread
+     *
+     * @param sc a variable that holds allSongs.txt
+     * @param buildThreads number of threads to build the index with
+     */
+    public SearchByLyricsWords(SongCollection sc, int buildThreads) {
+        this.buildThreads = buildThreads;
+        createCommonWordsTreeSet();
+        createLyricsIndex(sc.getAllSongs()); // a copy of all the songs in allSongs.txt
+        statisticsGathering();
+    }
+
+    /**
+     * constructor that keeps the index in a file, if the file holds an undamaged index built from these same songs
+     * it is memory mapped instead of parsing all the lyrics again, otherwise the index is built and saved to the
+     * file. Delete the file to force a rebuild
+     *
+     * @param sc a variable that holds allSongs.txt
+     * @param indexFileName where the index is saved
+     */
+    public SearchByLyricsWords(SongCollection sc, String indexFileName) {
+        Song[] songs = sc.getAllSongs(); // a copy of all the songs in allSongs.txt
+        createCommonWordsTreeSet();
+        File indexFile = new File(indexFileName);
+        long fingerprint = LyricsIndexFile.fingerprint(songs);
+        try {
+            LyricsIndex lyricsIndex = indexFile.exists()
+                    ? LyricsIndexFile.map(indexFile, songs.length, fingerprint) : null;
+            if (lyricsIndex != null) {
+                segments = new Segments(songs, lyricsIndex);
+                insertion = lyricsIndex.numPostings();
+            } else {
+                createLyricsIndex(songs);
+                LyricsIndexFile.write(getLyricsIndex(), songs.length, fingerprint, indexFile);
+            }
+        } catch (IOException ex) {
+            System.out.println("Could not use index file " + indexFileName + ": " + ex.getMessage());
+            if (segments == null) {
+                createLyricsIndex(songs);
+            }
+        }
         statisticsGathering();
     }
 
@@ -36,18 +168,244 @@ public class SearchByLyricsWords {
         return commonWords;
     }
 
-    public TreeMap<String, TreeSet<Song>> getLyricsSongMap() {
-        return lyricsSongMap;
+    /**
+     * @return the segments as one index without the removed songs, its song IDs are indexes into getSongs()
+     */
+    public LyricsIndex getLyricsIndex() {
+        return segments.joined();
+    }
+
+    /**
+     * the index with its song IDs renumbered to be indexes into order, such as to save it along with a
+     * SongCollection's songs
+     *
+     * @param order the songs that are in the index, in any order
+     * @return the index, not renumbered if the IDs already match
+     */
+    public LyricsIndex getLyricsIndex(Song[] order) {
+        Segments s = segments;
+        if (order == s.songs && s.count == order.length) {
+            return s.joined();
+        }
+        IdentityHashMap<Song, Integer> newIds = new IdentityHashMap<Song, Integer>();
+        for (int i = 0; i < order.length; i++) {
+            newIds.put(order[i], i);
+        }
+        // from the highest ID down, so a song that was removed and added again maps from the ID it has now
+        int[] idMap = new int[s.count];
+        for (int id = s.count - 1; id >= 0; id--) {
+            Integer newId = s.isDeleted(id) ? null : newIds.remove(s.songs[id]);
+            idMap[id] = newId == null ? -1 : newId;
+        }
+        return s.joined().remap(idMap);
+    }
+
+    /**
+     * @return the songs, indexed by song ID, removed songs are still there
+     */
+    public Song[] getSongs() {
+        Segments s = segments;
+        return s.count == s.songs.length ? s.songs : Arrays.copyOf(s.songs, s.count);
+    }
+
+    /**
+     * @return the number of segments a search looks in
+     */
+    public int numSegments() {
+        return segments.indexes.length;
+    }
+
+    /**
+     * add a song to the index, the song gets the next ID. Searches that start after this returns find it. A song
+     * object can only be in the index once
+     *
+     * @param song
+     */
+    public void addSong(Song song) {
+        addSong(prepare(song));
+    }
+
+    /**
+     * count the words of a song to add, the slow part of adding it, so it can be done before taking any lock
+     *
+     * @param song
+     * @return the song and its words, for addSong(Prepared)
+     */
+    Prepared prepare(Song song) {
+        return new Prepared(song, LyricsIndex.termCounts(song.getLyrics(), commonWords), LyricsIndex.fieldCounts(song));
+    }
+
+    /**
+     * add a song whose words were counted by prepare, searches that start after this returns find it
+     *
+     * @param prepared
+     */
+    void addSong(Prepared prepared) {
+        Song song = prepared.song;
+        TreeMap<String, Integer> terms = prepared.terms;
+        TreeMap<String, Integer> fieldTerms = prepared.fieldTerms;
+        synchronized (writeLock) {
+            Segments s = segments;
+            int id = s.count;
+            Song[] songs = s.songs;
+            if (id == songs.length) {
+                songs = Arrays.copyOf(songs, Math.max(16, id * 2));
+            }
+            // searches of older versions never look at IDs this high, so the slot is filled in place
+            songs[id] = song;
+
+            int last = s.indexes.length - 1;
+            LyricsIndex[] indexes;
+            LyricsIndex[] fields;
+            int[] firstIds;
+            if (s.isOpen(last)) {
+                indexes = s.indexes.clone();
+                indexes[last] = indexes[last].withSong(id, terms);
+                fields = s.fields.clone();
+                fields[last] = fields[last].withSong(id, fieldTerms);
+                firstIds = s.firstIds;
+            } else { // start a new small segment
+                indexes = Arrays.copyOf(s.indexes, last + 2);
+                indexes[last + 1] = LyricsIndex.empty().withSong(id, terms);
+                fields = Arrays.copyOf(s.fields, last + 2);
+                fields[last + 1] = LyricsIndex.empty().withSong(id, fieldTerms);
+                firstIds = Arrays.copyOf(s.firstIds, last + 2);
+                firstIds[last + 1] = id;
+            }
+            long length = 0;
+            for (int count : terms.values()) {
+                length += count;
+            }
+            Segments added = new Segments(songs, id + 1, indexes, fields, firstIds, s.deleted, s.dropped,
+                    s.sortedIds, s.numLive + 1, s.totalLength + length);
+            segments = added;
+            if (ids != null) {
+                ids.put(song, id);
+            }
+            insertion += terms.size();
+            if (!added.isOpen(added.indexes.length - 1)) {
+                startMerging();
+            }
+        }
+    }
+
+    /**
+     * remove a song from the index, it is marked as deleted and left out of its segment when that is next merged
+     *
+     * @param song
+     * @return true if the song was in the index
+     */
+    public boolean removeSong(Song song) {
+        synchronized (writeLock) {
+            Segments s = segments;
+            if (ids == null) {
+                ids = new IdentityHashMap<Song, Integer>(2 * s.count);
+                for (int id = 0; id < s.count; id++) {
+                    if (!s.isDeleted(id)) {
+                        ids.put(s.songs[id], id);
+                    }
+                }
+            }
+            Integer id = ids.remove(song);
+            if (id == null) {
+                return false;
+            }
+            int pos = -Arrays.binarySearch(s.deleted, id) - 1;
+            int[] deleted = new int[s.deleted.length + 1];
+            System.arraycopy(s.deleted, 0, deleted, 0, pos);
+            deleted[pos] = id;
+            System.arraycopy(s.deleted, pos, deleted, pos + 1, s.deleted.length - pos);
+            segments = new Segments(s.songs, s.count, s.indexes, s.fields, s.firstIds, deleted, s.dropped,
+                    s.sortedIds, s.numLive - 1, s.totalLength - s.indexes[s.segmentOf(id)].docLength(id));
+            insertion -= LyricsIndex.terms(song.getLyrics(), commonWords).size();
+            return true;
+        }
+    }
+
+    // called holding writeLock
+    private void startMerging() {
+        if (merger == null) {
+            merger = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "lyrics segment merger");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        merger.execute(this::mergeSegments);
+    }
+
+    /**
+     * merge closed segments until no neighbours are close enough in size. The merge runs without the lock, only
+     * putting the result in place takes it. Only this thread removes segments and writers only change the open
+     * segment at the end, so the merged pair is still where it was unless the index was rebuilt
+     */
+    private void mergeSegments() {
+        for (;;) {
+            Segments s = segments;
+            int i = s.mergeCandidate();
+            if (i < 0) {
+                return;
+            }
+            LyricsIndex merged = LyricsIndex.concat(new LyricsIndex[]{s.indexes[i], s.indexes[i + 1]}, s.deleted);
+            LyricsIndex mergedFields = LyricsIndex.concat(new LyricsIndex[]{s.fields[i], s.fields[i + 1]}, s.deleted);
+            synchronized (writeLock) {
+                Segments now = segments;
+                if (now.indexes.length <= i + 1 || now.indexes[i] != s.indexes[i]
+                        || now.indexes[i + 1] != s.indexes[i + 1]) {
+                    return;
+                }
+                LyricsIndex[] indexes = new LyricsIndex[now.indexes.length - 1];
+                System.arraycopy(now.indexes, 0, indexes, 0, i);
+                indexes[i] = merged;
+                System.arraycopy(now.indexes, i + 2, indexes, i + 1, now.indexes.length - i - 2);
+                LyricsIndex[] fields = new LyricsIndex[indexes.length];
+                System.arraycopy(now.fields, 0, fields, 0, i);
+                fields[i] = mergedFields;
+                System.arraycopy(now.fields, i + 2, fields, i + 1, now.fields.length - i - 2);
+                int[] firstIds = new int[indexes.length];
+                System.arraycopy(now.firstIds, 0, firstIds, 0, i + 1);
+                System.arraycopy(now.firstIds, i + 2, firstIds, i + 1, now.firstIds.length - i - 2);
+                int end = i + 2 < now.firstIds.length ? now.firstIds[i + 2] : now.count;
+                int[] deleted = withoutDropped(now.deleted, s.deleted, now.firstIds[i], end);
+                int[] dropped = deleted == now.deleted ? now.dropped
+                        : LyricsIndex.union(now.dropped, LyricsIndex.difference(now.deleted, deleted));
+                segments = new Segments(now.songs, now.count, indexes, fields, firstIds, deleted, dropped,
+                        now.sortedIds, now.numLive, now.totalLength);
+            }
+        }
+    }
+
+    /**
+     * the removed songs that are still in a segment after a merge
+     *
+     * @param deleted the removed songs now
+     * @param dropped the removed songs when the merge started, the merge left those from first to end out
+     * @param first the lowest ID of the merged segment
+     * @param end one past its highest ID
+     * @return deleted without the IDs the merge left out
+     */
+    private static int[] withoutDropped(int[] deleted, int[] dropped, int first, int end) {
+        int[] kept = new int[deleted.length];
+        int n = 0;
+        for (int id : deleted) {
+            if (id < first || id >= end || Arrays.binarySearch(dropped, id) < 0) {
+                kept[n++] = id;
+            }
+        }
+        return n == kept.length ? deleted : Arrays.copyOf(kept, n);
     }
 
     /**
      * Checks to see if commonWords.txt is present If commonWords.txt is present add each word in the text file and add
-     * them to the commonWordsTreeSet so it can be used to parse the lyrics of songs later on
+     * them to the commonWordsTreeSet so it can be used to parse the lyrics of songs later on. The file is checked in
+     * as commonwords.txt, that name is tried when commonWords.txt is not there, which matters on case sensitive file
+     * systems
      */
     public void createCommonWordsTreeSet() {
         Scanner in = null;
         try {
-            in = new Scanner(new FileReader("commonWords.txt"));
+            File file = new File("commonWords.txt");
+            in = new Scanner(new FileReader(file.exists() ? file : new File("commonwords.txt")));
         } catch (FileNotFoundException ex) {
             System.out.println("File not found.");
             System.exit(1);
@@ -62,62 +420,128 @@ public class SearchByLyricsWords {
     }
 
     /**
-     * Parse each word in the current lyrics and remove all common words, punctuation and numbers Add the edited lyrics
-     * to the songLyrics TreeSet
+     * Parse each word in the lyrics of every song, ignoring common words, punctuation and numbers, and build the
+     * posting list index from the rest. Any songs indexed before are replaced
+     *
+     * @param songs the songs to index, their IDs are their indexes in this array
      */
-    public void createSongLyricsTreeSet() {
-        // set of lyrics without common words, puncuation and numbers
-        TreeSet<String> songLyrics = new TreeSet<String>();
-        for (Song s : songs) { // loops through the Song[]
-            String lyrics = s.getLyrics().toLowerCase();
-            for (String lyricsWord : lyrics.split("[^a-zA-Z]+")) {
-                if (lyricsWord.length() > 1) {
-                    songLyrics.add(lyricsWord);
-                }
-            }
-            songLyrics.removeAll(commonWords);
-            insertion = createSongTreeMap(songLyrics, s);
-            songLyrics.clear();
+    public void createLyricsIndex(Song[] songs) {
+        LyricsIndex lyricsIndex = LyricsIndex.build(songs, commonWords, buildThreads);
+        synchronized (writeLock) {
+            segments = new Segments(songs, lyricsIndex);
+            ids = null;
+            insertion = lyricsIndex.numPostings();
         }
     }
 
     /**
+     * Argument is a string containing lyrics words, and uses the map to conduct the search search terms are parsed and
+     * common words, single letters, punctuation and numbers should be ignored
      *
-     * @param songLyrics a copy of the lyrics to one song with commonWords, punctuation and numbers removed
-     * @param s a copy of one songs with artist, title and lyrics
-     * @return
+     * @param lyricsWords A String that contains a set of words to search for in the list of songs
+     * @return a Song[] of all the songs that match the lyrics search criteria
      */
-    public int createSongTreeMap(TreeSet<String> songLyrics, Song s) {
-        Iterator<String> lyricsIterator = songLyrics.iterator();
+    public Song[] search(String lyricsWords) {
+        return search(lyricsWords, false);
+    }
 
-        while (lyricsIterator.hasNext()) {
-            String lyricsWord = lyricsIterator.next();
-            TreeSet<Song> songsSet = new TreeSet<Song>();
-            if (lyricsSongMap.containsKey(lyricsWord)) {
-                songsSet = lyricsSongMap.get(lyricsWord);
-                songsSet.add(s);
-                lyricsSongMap.put(lyricsWord, songsSet);
-                insertion++;
-            } else {
-                songsSet.add(s);
-                lyricsSongMap.put(lyricsWord, songsSet);
-                insertion++;
+    /**
+     * search that forgives misspelled words, each word matches every term within LevenshteinAutomaton.defaultEdits
+     * of it, so "beatels" finds songs with "beatles". A word with no term that close is ignored like an unknown word
+     * in search
+     *
+     * @param lyricsWords A String that contains a set of words to search for in the list of songs
+     * @return a Song[] of all the songs that have a term close to every word
+     */
+    public Song[] fuzzySearch(String lyricsWords) {
+        return search(lyricsWords, true);
+    }
+
+    private Song[] search(String lyricsWords, boolean fuzzy) {
+        Segments s = segments; // the whole search reads this version, whatever is added or merged meanwhile
+        TreeSet<String> wordsToSearchFor = searchWords(lyricsWords);
+
+        // posting lists of each segment for the words that are in the index, words in no segment are ignored.
+        // A word has one list, or in a fuzzy search one for each term close to it
+        int numSegments = s.indexes.length;
+        int[][][][] foundSongs = new int[numSegments][wordsToSearchFor.size()][][];
+        int numFound = 0;
+        for (String wordToSearchFor : wordsToSearchFor) {
+            LevenshteinAutomaton automaton = fuzzy
+                    ? new LevenshteinAutomaton(wordToSearchFor, LevenshteinAutomaton.defaultEdits(wordToSearchFor))
+                    : null;
+            boolean found = false;
+            for (int seg = 0; seg < numSegments; seg++) {
+                int[][] postings = fuzzy ? fuzzyPostings(s.indexes[seg], automaton)
+                        : exactPostings(s.indexes[seg], wordToSearchFor);
+                foundSongs[seg][numFound] = postings == null ? new int[][]{new int[0]} : postings;
+                found |= postings != null;
             }
+            if (found) {
+                numFound++;
+            }
+        }
+
+        // sorted IDs of the songs in each segment that match search criteria, rarest word first
+        int[][] segmentMatches = new int[numSegments][];
+        for (int seg = 0; seg < numSegments; seg++) {
+            segmentMatches[seg] = LyricsIndex.intersectGroups(Arrays.copyOf(foundSongs[seg], numFound));
         }
-        return insertion;
+        return toSongs(s, segmentMatches);
     }
 
     /**
-     * Argument is a string containing lyrics words, and uses the map to conduct the search search terms are parsed and
-     * common words, single letters, punctuation and numbers should be ignored
+     * search with a boolean query of lyrics words, artist: and title: words, AND, OR, NOT and parentheses, see
+     * LyricsQuery. For example "love AND (heart OR night) NOT rain" or "artist:beatles -yesterday"
      *
-     * @param lyricsWords A String that contains a set of words to search for in the list of songs
-     * @return a Song[] of all the songs that match the lyrics search criteria
+     * @param query
+     * @return the matching songs, sorted by artist then title
+     * @throws LyricsQuery.SyntaxException if the query is not well formed
      */
-    public Song[] search(String lyricsWords) {
+    public Song[] query(String query) {
+        LyricsQuery parsed = LyricsQuery.parse(query, commonWords);
+        Segments s = segments;
+        int numSegments = s.indexes.length;
+        int[][] segmentMatches = new int[numSegments][];
+        for (int seg = 0; seg < numSegments; seg++) {
+            int end = seg + 1 < numSegments ? s.firstIds[seg + 1] : s.count;
+            segmentMatches[seg] = parsed.evaluate(s.indexes[seg], s.fields[seg], s.firstIds[seg], end, s.dropped);
+        }
+        return toSongs(s, segmentMatches);
+    }
+
+    // convert the IDs of songs that were not removed to an array of Songs[], the segments are in ID order
+    private static Song[] toSongs(Segments s, int[][] segmentMatches) {
+        int numMatches = 0;
+        for (int[] songMatches : segmentMatches) {
+            numMatches += songMatches.length;
+        }
+        Song[] sa = new Song[numMatches];
+        int n = 0;
+        int lastId = -1;
+        for (int[] songMatches : segmentMatches) {
+            for (int id : songMatches) {
+                if (!s.isDeleted(id)) {
+                    sa[n++] = s.songs[id];
+                    lastId = id;
+                }
+            }
+        }
+        if (n < sa.length) {
+            sa = Arrays.copyOf(sa, n);
+        }
+        // songs added since the index was built have the highest IDs, but they belong anywhere in the order
+        if (lastId >= s.sortedIds) {
+            Arrays.sort(sa);
+        }
+
+        return sa;
+    }
+
+    // the lyric words to search for, without repeats or common words
+    private TreeSet<String> searchWords(String lyricsWords) {
         Scanner searchWordsIterator = new Scanner(lyricsWords.toLowerCase());
-        TreeSet<String> wordsToSearchFor = new TreeSet<String>(); // lyric words to search for
-        TreeSet<Song> songMatches = new TreeSet<Song>(); // set of songs that match search criteria
+        TreeSet<String> wordsToSearchFor = new TreeSet<String>();
 
         while (searchWordsIterator.hasNext()) {
             // findWord = single word out of a set of lyrics words to search for
@@ -126,56 +550,299 @@ public class SearchByLyricsWords {
         }
 
         wordsToSearchFor.removeAll(commonWords);
+        return wordsToSearchFor;
+    }
+
+    /**
+     * the k songs that best match the words, ranked by BM25. A song matches if its lyrics have any of the words. A
+     * word adds more for being in fewer songs and for being in the song more often, and less the longer the song is.
+     *
+     * Only the best k so far are kept, in a heap. Each word's most it can add to any score is known from the index.
+     * Once the words that can add least together can not lift a song past the worst of the best k, songs are only
+     * taken from the other words' lists, and the weak words are looked up for a song by galloping search only while
+     * it can still make the best k (MaxScore). So for a broad search most of the common words' songs are skipped
+     * rather than scored
+     *
+     * @param lyricsWords A String that contains a set of words to search for in the list of songs
+     * @param k number of matches wanted
+     * @return up to k songs with any of the words and their scores, best first
+     */
+    public Match[] topSearch(String lyricsWords, int k) {
+        if (k <= 0) {
+            return new Match[0];
+        }
+        Segments s = segments;
+        String[] words = searchWords(lyricsWords).toArray(new String[0]);
 
-        Iterator<String> wordsToSearch = wordsToSearchFor.iterator();
-        while (wordsToSearch.hasNext()) {
-            String wordToSearchFor = (String) wordsToSearch.next();
-            TreeSet<Song> foundSongs = new TreeSet<Song>();
-            if (lyricsSongMap.containsKey(wordToSearchFor) == true) {
-                foundSongs = lyricsSongMap.get(wordToSearchFor);
-                if (songMatches.size() == 0) {
-                    songMatches.addAll(foundSongs);
-                } else if (songMatches.size() > 1) {
-                    songMatches.retainAll(foundSongs);
+        // statistics over every segment, so a song scores the same whichever segment it is in
+        int numSongs = Math.max(1, s.numLive);
+        double avgLength = Math.max(1.0, (double) s.totalLength / numSongs);
+        double[] idf = new double[words.length];
+        for (int w = 0; w < words.length; w++) {
+            long docFreq = 0; // removed songs count until their segment is merged
+            for (LyricsIndex index : s.indexes) {
+                int termId = index.termId(words[w]);
+                docFreq += termId >= 0 ? index.docFreq(termId) : 0;
+            }
+            docFreq = Math.min(docFreq, numSongs);
+            idf[w] = Math.log(1 + (numSongs - docFreq + 0.5) / (docFreq + 0.5));
+        }
+
+        // the best k so far, worst match on top
+        PriorityQueue<Match> best = new PriorityQueue<Match>(Math.min(k, 1024), Collections.reverseOrder());
+        for (LyricsIndex index : s.indexes) {
+            topSearch(s, index, words, idf, avgLength, best, k);
+        }
+        Match[] top = best.toArray(new Match[best.size()]);
+        Arrays.sort(top);
+        return top;
+    }
+
+    /**
+     * score one segment's songs into the heap of the best k
+     */
+    private static void topSearch(Segments s, LyricsIndex index, String[] words, double[] idf, double avgLength,
+            PriorityQueue<Match> best, int k) {
+        // the words that are in this segment, least valuable first
+        int[] termIds = new int[words.length];
+        double[] weights = new double[words.length];
+        double[] bounds = new double[words.length]; // the most each word can add to a score
+        int n = 0;
+        for (int w = 0; w < words.length; w++) {
+            int termId = index.termId(words[w]);
+            if (termId < 0) {
+                continue;
+            }
+            double bound = idf[w] * tfScore(index.maxFreq(termId), index.minLength(termId), avgLength);
+            int j = n++; // insertion sort, there are only a few words
+            while (j > 0 && bounds[j - 1] > bound) {
+                termIds[j] = termIds[j - 1];
+                weights[j] = weights[j - 1];
+                bounds[j] = bounds[j - 1];
+                j--;
+            }
+            termIds[j] = termId;
+            weights[j] = idf[w];
+            bounds[j] = bound;
+        }
+        int[][] ids = new int[n][];
+        int[][] freqs = new int[n][];
+        double[] upTo = new double[n]; // upTo[i] is the most words 0 to i can add together
+        for (int i = 0; i < n; i++) {
+            ids[i] = index.postings(termIds[i]);
+            freqs[i] = index.frequencies(termIds[i]);
+            upTo[i] = (i > 0 ? upTo[i - 1] : 0) + bounds[i];
+        }
+
+        int[] pos = new int[n]; // where each word's list has got to, songs are taken in ID order
+        double threshold = best.size() == k ? best.peek().getScore() : 0;
+        int first = 0; // a song with none of the words from first on can not make the best k
+        while (first < n && upTo[first] < threshold) {
+            first++;
+        }
+        while (first < n) {
+            int id = Integer.MAX_VALUE;
+            for (int i = first; i < n; i++) {
+                if (pos[i] < ids[i].length) {
+                    id = Math.min(id, ids[i][pos[i]]);
+                }
+            }
+            if (id == Integer.MAX_VALUE) {
+                return;
+            }
+            int length = index.docLength(id);
+            double score = 0;
+            for (int i = first; i < n; i++) {
+                if (pos[i] < ids[i].length && ids[i][pos[i]] == id) {
+                    score += weights[i] * tfScore(freqs[i][pos[i]++], length, avgLength);
+                }
+            }
+            // the weaker words, strongest first, while they could still lift the song into the best k
+            for (int i = first - 1; i >= 0 && score + upTo[i] >= threshold; i--) {
+                pos[i] = LyricsIndex.gallop(ids[i], pos[i], id);
+                if (pos[i] < ids[i].length && ids[i][pos[i]] == id) {
+                    score += weights[i] * tfScore(freqs[i][pos[i]], length, avgLength);
+                }
+            }
+            if ((best.size() == k && score < threshold) || s.isDeleted(id)) {
+                continue;
+            }
+            Match match = new Match(s.songs[id], score);
+            if (best.size() < k) {
+                best.add(match);
+            } else if (match.compareTo(best.peek()) < 0) {
+                best.poll();
+                best.add(match);
+            }
+            if (best.size() == k) {
+                threshold = best.peek().getScore();
+                while (first < n && upTo[first] < threshold) {
+                    first++;
                 }
             }
         }
+    }
 
-        // create an array that is the right size and convert to an array of Songs[]
-        Song[] sa = songMatches.toArray(new Song[songMatches.size()]);
+    // BM25's part for how often a word is in a song, before it is weighted by how rare the word is
+    private static double tfScore(int freq, int length, double avgLength) {
+        return freq * (K1 + 1) / (freq + K1 * (1 - B + B * length / avgLength));
+    }
 
-        return sa;
+    /**
+     * @return the word's posting list on its own, null if it is not in the index
+     */
+    private static int[][] exactPostings(LyricsIndex index, String word) {
+        int[] postings = index.postings(word);
+        return postings == null ? null : new int[][]{postings};
+    }
+
+    /**
+     * @return the posting lists of the terms the automaton matches, null if there is no such term
+     */
+    private static int[][] fuzzyPostings(LyricsIndex index, LevenshteinAutomaton automaton) {
+        int[] ranges = automaton.matches(index::term, index.numTerms(), false);
+        if (ranges.length == 0) {
+            return null;
+        }
+        LyricsIndex.IntList termIds = new LyricsIndex.IntList();
+        for (int r = 0; r < ranges.length; r += 2) {
+            for (int t = ranges[r]; t < ranges[r + 1]; t++) {
+                termIds.add(t);
+            }
+        }
+        int[][] lists = new int[termIds.size][];
+        for (int i = 0; i < lists.length; i++) {
+            lists[i] = index.postings(termIds.items[i]);
+        }
+        return lists;
     }
 
     // Gather statistics and print them
     public void statisticsGathering() {
+        Segments s = segments;
         System.out.println("\nStatistics Gathering: ");
         System.out.println("Total indexing terms: " + insertion);
-        double indexAvgPerSong = insertion / songs.length;
+        double indexAvgPerSong = insertion / Math.max(1, s.numLive);
         System.out.println("Average number of indexing terms per song:  " + indexAvgPerSong);
-        Set<String> totalNumKeys = lyricsSongMap.keySet();
-        int NumMapKeys = totalNumKeys.size();
-        Collection<TreeSet<Song>> totalValues = lyricsSongMap.values();
-        int totalValuesSize = totalValues.size();
+        int NumMapKeys = s.indexes[0].numTerms();
         System.out.println("Number of keys in the map: " + NumMapKeys);
-        System.out.println("The total number of values in the TreeMap is: " + totalValuesSize);
 
-        int numOfMapRef = 0;
-        for (TreeSet<Song> value : lyricsSongMap.values()) {
-            int numPerWord = value.size();
-            numOfMapRef += numPerWord;
-        }
+        int numOfMapRef = insertion;
         System.out.println("Total mapped song references: " + numOfMapRef);
-        double avgReg = numOfMapRef / NumMapKeys;
+        double avgReg = numOfMapRef / Math.max(1, NumMapKeys);
         System.out.println("Average number of song references per key: " + avgReg);
     }
 
+    /**
+     * a song to add with the counts of its lyrics words and of its artist and title words
+     */
+    static final class Prepared {
+
+        final Song song;
+        final TreeMap<String, Integer> terms;
+        final TreeMap<String, Integer> fieldTerms;
+
+        Prepared(Song song, TreeMap<String, Integer> terms, TreeMap<String, Integer> fieldTerms) {
+            this.song = song;
+            this.terms = terms;
+            this.fieldTerms = fieldTerms;
+        }
+    }
+
+    /**
+     * One version of the index. It is never changed, adding, removing or
+     * merging builds a new one
+     */
+    private static final class Segments {
+
+        final Song[] songs;          // songs[id], may have unused room past count
+        final int count;             // number of song IDs given out
+        final LyricsIndex[] indexes; // oldest first, each holds higher IDs than the ones before
+        final LyricsIndex[] fields;  // fields[i] holds the artist and title words of the songs in indexes[i]
+        final int[] firstIds;        // firstIds[i] is the lowest ID indexes[i] can hold
+        final int[] deleted;         // sorted IDs of removed songs still in their segment, merges drop them
+        final int[] dropped;         // sorted IDs of removed songs merges have dropped, in no segment
+        final int sortedIds;         // songs with IDs below this are in artist and title order
+        final int numLive;           // songs that are not removed
+        final long totalLength;      // indexed words in the lyrics of the songs that are not removed
+
+        // one segment of songs that are in order
+        Segments(Song[] songs, LyricsIndex index) {
+            this(songs, songs.length, new LyricsIndex[]{index}, new LyricsIndex[]{LyricsIndex.buildFields(songs)},
+                    new int[]{0}, new int[0], new int[0], songs.length, songs.length, index.totalLength());
+        }
+
+        // numLive and totalLength are kept up to date by the writers rather than counted again for each change
+        Segments(Song[] songs, int count, LyricsIndex[] indexes, LyricsIndex[] fields, int[] firstIds, int[] deleted,
+                int[] dropped, int sortedIds, int numLive, long totalLength) {
+            this.songs = songs;
+            this.count = count;
+            this.indexes = indexes;
+            this.fields = fields;
+            this.firstIds = firstIds;
+            this.deleted = deleted;
+            this.dropped = dropped;
+            this.sortedIds = sortedIds;
+            this.numLive = numLive;
+            this.totalLength = totalLength;
+        }
+
+        boolean isDeleted(int id) {
+            return deleted.length > 0 && Arrays.binarySearch(deleted, id) >= 0;
+        }
+
+        // the last segment whose first ID is at most id, an empty segment shares its first ID with the next
+        int segmentOf(int id) {
+            int lo = 0;
+            int hi = firstIds.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (firstIds[mid] <= id) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo - 1;
+        }
+
+        // number of song IDs segment i covers
+        int size(int i) {
+            return (i + 1 < firstIds.length ? firstIds[i + 1] : count) - firstIds[i];
+        }
+
+        // segment i is the small one at the end and still takes added songs
+        boolean isOpen(int i) {
+            return i > 0 && i == indexes.length - 1 && size(i) < SMALL_SEGMENT_SONGS;
+        }
+
+        // the newest pair of closed neighbours close enough in size to merge, -1 if none
+        int mergeCandidate() {
+            int closed = isOpen(indexes.length - 1) ? indexes.length - 1 : indexes.length;
+            for (int i = closed - 2; i >= 0; i--) {
+                if (size(i) <= MERGE_RATIO * size(i + 1)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        // all the segments as one index
+        LyricsIndex joined() {
+            if (indexes.length == 1 && deleted.length == 0) {
+                return indexes[0];
+            }
+            return LyricsIndex.concat(indexes, deleted);
+        }
+    }
+
     /**
      * Testing Routine
      *
      * @param args
+     * @throws IOException
      */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
         SongCollection sc = new SongCollection("allSongs.txt");
         SearchByLyricsWords sblw = new SearchByLyricsWords(sc);
         String lyricsWords = "she loves my car";
@@ -195,5 +862,12 @@ public class SearchByLyricsWords {
                 System.out.println(byLyricsResults[i]);
             }
         }
+
+        // the ten songs with any of the words that match best
+        System.out.println("\nBest ten songs with any of the words:");
+        System.out.println("score  artist      title");
+        for (Match match : sblw.topSearch(lyricsWords, 10)) {
+            System.out.println(match);
+        }
     }
 }
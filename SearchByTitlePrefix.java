@@ -1,14 +1,30 @@
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Comparator;
 
 /**
+ * Searches go through a PrefixTrie over the titles in list order, which
+ * finds the range of a prefix in one step per character instead of a
+ * binary search that compares whole titles. The range is then a view of
+ * the list. Searches do not change the list or the trie, so they can run in
+ * many threads at once.
+ *
+ * The titles are also kept in a sorted array that adding or removing a
+ * song replaces. The trie is built again from the new array on a
+ * background thread, and until it is ready searches binary search the
+ * array instead, so a search never builds a trie.
+ *
+ * fuzzySearch also finds titles that start with a misspelling of the
+ * prefix, by running a LevenshteinAutomaton over the titles in order.
  *
  * @author David Heywood
  */
 
 public class SearchByTitlePrefix {
-    private Song[] songs;  // keep a direct reference to the song array
-    private RaggedArrayList<Song> RAList;
-    private Comparator<Song> comp;        
+    private final RaggedArrayList<Song> RAList;
+    private volatile String[] keys; // the titles in RAList's order, replaced when a song is added or removed
+    private volatile TitleTrie trie; // only used while the keys it was built from are still the keys
+    private final BackgroundRebuild trieBuilder = new BackgroundRebuild("title trie builder", this::buildTrie);
 
     /**
      * constructor takes in a songCollection object
@@ -16,23 +32,78 @@ public class SearchByTitlePrefix {
      * @param sc
      */
         public SearchByTitlePrefix(SongCollection sc) {
-        songs = sc.getAllSongs();  // a copy of all the songs in allSongs.txt
-        comp = new Song.CompareTitle();
-        ((CmpCnt)comp).resetCmpCnt();        
-        RAList = new RaggedArrayList<Song>(comp);
-        int count = 0;       
-                 
-        for (int i = 0; i < songs.length; i++) {
-            RAList.add(songs[i]);
-            count++;
-            System.out.println(count);
-        }
+        Song[] songs = sc.getAllSongs();
+        Comparator<Song> comp = new Song.CompareTitle();
+        // sort a copy by title once, then pack it straight into the list
+        Comparator<Song> sortComp = new Song.CompareFullTitle();
+        Song[] byTitle = Arrays.copyOf(songs, songs.length);
+        Arrays.sort(byTitle, sortComp);
+        RAList = new RaggedArrayList<Song>(comp, byTitle);
         System.out.println("\n" + "\"Statistics for the RaggedArrayList\"");
-        System.out.println("The total number of compares to build ragged array list: "
-                + ((CmpCnt) comp).getCmpCnt() + ".");
+        System.out.println("The total number of compares to sort by title: "
+                + ((CmpCnt) sortComp).getCmpCnt() + ".");
+        ((CmpCnt)comp).resetCmpCnt();
         RAList.stats();
+        keys = titleKeys();
+        trie = new TitleTrie(keys);
+        System.out.println("Title trie nodes: " + trie.trie.numNodes() + ", about " + trie.trie.memoryBytes()
+                + " bytes");
     }    
 
+    /**
+     * constructor for songs that are already in title order, such as from a snapshot, so no sorting is done
+     * @param sc the collection, its songs are the ones in byTitle
+     * @param byTitle the songs sorted by Song.CompareFullTitle
+     */
+    public SearchByTitlePrefix(SongCollection sc, Song[] byTitle) {
+        RAList = new RaggedArrayList<Song>(new Song.CompareTitle(), byTitle);
+        keys = titleKeys();
+        trie = new TitleTrie(keys);
+    }
+
+    /**
+     * add a song in its place in title order
+     * @param song
+     */
+    public void addSong(Song song) {
+        // the list's own comparator only compares prefixes, the full title gives the exact place
+        RAList.add(song, new Song.CompareFullTitle());
+        String[] k = keys;
+        int pos = Arrays.binarySearch(k, song.getTitleKey()); // equal titles are the same key, any place will do
+        pos = pos >= 0 ? pos : -pos - 1;
+        String[] added = new String[k.length + 1];
+        System.arraycopy(k, 0, added, 0, pos);
+        added[pos] = song.getTitleKey();
+        System.arraycopy(k, pos, added, pos + 1, k.length - pos);
+        keys = added;
+        trieBuilder.request();
+    }
+
+    /**
+     * @param song
+     * @return true if the song was in the list
+     */
+    public boolean removeSong(Song song) {
+        if (!RAList.remove(song, new Song.CompareFullTitle())) {
+            return false;
+        }
+        String[] k = keys;
+        int pos = Arrays.binarySearch(k, song.getTitleKey());
+        String[] removed = new String[k.length - 1];
+        System.arraycopy(k, 0, removed, 0, pos);
+        System.arraycopy(k, pos + 1, removed, pos, k.length - pos - 1);
+        keys = removed;
+        trieBuilder.request();
+        return true;
+    }
+
+    /**
+     * @return all the songs in title order
+     */
+    public Song[] getSongsByTitle() {
+        return RAList.toArray(new Song[RAList.size()]);
+    }
+
     /**
      * find all songs matching title prefix
      * 
@@ -40,32 +111,89 @@ public class SearchByTitlePrefix {
      * @return
      */
     public Song[] search(String titlePrefix) {        
-        titlePrefix = titlePrefix.toLowerCase();
-        // Song object to store title prefix being searched for
-        Song key = new Song("dummy", titlePrefix, "dummy");
-        ((CmpCnt)comp).resetCmpCnt();
-        // find the last character of the titlePrefix to create prefix search  
-        char titlesLastChar = titlePrefix.charAt(titlePrefix.length() - 1);
-        // Increments the last character to next letter in the alphabet
-        titlesLastChar++;
-        
-        String endTitlePrefix = titlePrefix.substring(0, titlePrefix.length() - 1) + titlesLastChar;       
-        // Song object to store the incremented last character from the titlePrefix
-        Song endTitlePrefixSong = new Song("dummy", endTitlePrefix, "dummy");
-        // create a subList of a search for the titlePrefix
-        RaggedArrayList matches = RAList.subList(key, endTitlePrefixSong);         
-        Song[] sa = new Song[matches.size()]; // create an array that is the right size
-        sa = (Song[]) matches.toArray(sa);
-        System.out.println("The total number of songs is " + sa.length);
+        RaggedArrayList<Song>.SubListView matches = searchView(titlePrefix);
+        return matches.toArray(new Song[matches.size()]); // create an array that is the right size
+    }       
 
+    /**
+     * find all songs matching title prefix without copying them
+     * the view can be paged through, it is valid until the list changes
+     * 
+     * @param titlePrefix
+     * @return a view of the matching range of the RaggedArrayList
+     */
+    public RaggedArrayList<Song>.SubListView searchView(String titlePrefix) {
+        String prefix = titlePrefix.toLowerCase();
+        String[] k = keys;
+        TitleTrie t = trie;
+        int[] range = t.keys == k ? t.trie.range(prefix) : PrefixTrie.range(i -> k[i], k.length, prefix);
+        // a view of the range for the titlePrefix, nothing is copied
+        return RAList.subListView(range[0], range[1]);
+    }
+
+    /**
+     * find all songs whose title starts with the prefix or with something within LevenshteinAutomaton.defaultEdits
+     * of it, so "yesterdya" finds "Yesterday"
+     *
+     * @param titlePrefix
+     * @return the matching songs in title order
+     */
+    public Song[] fuzzySearch(String titlePrefix) {
+        titlePrefix = titlePrefix.toLowerCase();
+        String[] keys = this.keys;
+        int[] ranges = new LevenshteinAutomaton(titlePrefix, LevenshteinAutomaton.defaultEdits(titlePrefix))
+                .matches(i -> keys[i], keys.length, true);
+        int total = 0;
+        for (int r = 0; r < ranges.length; r += 2) {
+            total += ranges[r + 1] - ranges[r];
+        }
+        Song[] sa = new Song[total];
+        int n = 0;
+        for (int r = 0; r < ranges.length; r += 2) {
+            for (Song song : RAList.subListView(ranges[r], ranges[r + 1])) {
+                sa[n++] = song;
+            }
+        }
         return sa;
-    }       
+    }
+
+    // runs on the builder thread, builds a trie over the current keys
+    private void buildTrie() {
+        String[] k = keys;
+        if (trie.keys != k) {
+            trie = new TitleTrie(k);
+        }
+    }
+
+    private String[] titleKeys() {
+        String[] keys = new String[RAList.size()];
+        int i = 0;
+        for (Song song : RAList) {
+            keys[i++] = song.getTitleKey();
+        }
+        return keys;
+    }
+
+    /**
+     * the titles in list order and the trie over them
+     */
+    private static class TitleTrie {
+
+        final String[] keys;
+        final PrefixTrie trie;
+
+        TitleTrie(String[] keys) {
+            this.keys = keys;
+            this.trie = new PrefixTrie(keys);
+        }
+    }
             
     /**
      * Testing routine
      * @param args
+     * @throws IOException
      */
-        public static void main(String[] args){        
+        public static void main(String[] args) throws IOException {        
         if (args.length > 2) {
            System.err.println("usage: prog songfile title");
             System.exit(1);
@@ -76,6 +204,7 @@ public class SearchByTitlePrefix {
         
         System.out.println("searching for: " + "Angel");
         Song[] byTitleResult = sbtp.search("Angel");     
+        System.out.println("The total number of songs is " + byTitleResult.length);
 
         for (int i = 0; i < 10; i++) {
             System.out.println(byTitleResult[i]);
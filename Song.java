@@ -1,5 +1,7 @@
 
+import java.nio.charset.StandardCharsets;
 import java.util.Comparator;
+import java.util.concurrent.atomic.LongAdder;
 
 /*
  * CSCI 290 
@@ -11,8 +13,15 @@ public class Song implements Comparable<Song> {
 
     private String artist;
     private String title;
-    private String lyrics;
-    private static int compares; // so all the songs have the same one
+    private String lyrics;  // null when the lyrics are kept in a LyricsStore
+    private LyricsStore lyricsStore;
+    private long lyricsOffset;
+    private int lyricsLength;  // in UTF-8 bytes
+    // case folded sort keys, computed once so comparisons don't allocate
+    private String artistKey;
+    private String titleKey;
+    // so all the songs have the same one, a LongAdder so sorts and searches in different threads all count
+    private static final LongAdder compares = new LongAdder();
 
     int cmpCnt;
 
@@ -33,13 +42,49 @@ public class Song implements Comparable<Song> {
         artist = a;
         title = t;
         lyrics = l;
+        artistKey = a.toLowerCase();
+        titleKey = t.toLowerCase();
+    }
+
+    /**
+     * the lyrics are moved off the heap into the store, getLyrics decodes
+     * them each time it is called
+     *
+     * @param a is the artist of the song
+     * @param t is the title of the song
+     * @param l is the lyrics for the song
+     * @param store where the lyrics are kept
+     */
+    public Song(String a, String t, String l, LyricsStore store) {
+        this(a, t, null);
+        byte[] bytes = l.getBytes(StandardCharsets.UTF_8);
+        lyricsStore = store;
+        lyricsLength = bytes.length;
+        lyricsOffset = store.add(bytes);
+    }
+
+    /**
+     * a song whose lyrics are already in the store, such as one read from a
+     * snapshot
+     *
+     * @param a is the artist of the song
+     * @param t is the title of the song
+     * @param store where the lyrics are kept
+     * @param offset where the lyrics are in the store
+     * @param length of the lyrics in UTF-8 bytes
+     */
+    Song(String a, String t, LyricsStore store, long offset, int length) {
+        this(a, t, null);
+        lyricsStore = store;
+        lyricsOffset = offset;
+        lyricsLength = length;
     }
 
     /**
      *
      */
     public void resetCompares() {
-        compares = 0;
+        compares.reset();
     }
 
     /**
@@ -58,11 +103,30 @@ public class Song implements Comparable<Song> {
         return title;
     }
 
+    /**
+     *
+     * @return the artist in lower case, as used for sorting and searching
+     */
+    public String getArtistKey() {
+        return artistKey;
+    }
+
+    /**
+     *
+     * @return the title in lower case, as used for sorting and searching
+     */
+    public String getTitleKey() {
+        return titleKey;
+    }
+
     /**
      *
      * @return
      */
     public String getLyrics() {
+        if (lyrics == null) {
+            return lyricsStore.get(lyricsOffset, lyricsLength);
+        }
         return lyrics;
     }
 
@@ -71,7 +135,7 @@ public class Song implements Comparable<Song> {
      * @return
      */
     public int getCompares() {
-        return compares;
+        return compares.intValue();
     }
 
     /**
@@ -98,7 +162,7 @@ public class Song implements Comparable<Song> {
      */
     @Override
     public int compareTo(Song t) {
-        compares++; //counts how many times the method gets called
+        compares.increment(); //counts how many times the method gets called
         final int BEFORE = -1; // not needed, no numeric data in object
         final int EQUAL = 0;
         final int AFTER = 1;
@@ -111,12 +175,12 @@ public class Song implements Comparable<Song> {
             return EQUAL;
         }
 
-        int comparison = this.artist.compareToIgnoreCase(t.artist);
+        int comparison = this.artistKey.compareTo(t.artistKey);
         if (comparison != EQUAL) {
             return comparison;
         }
 
-        comparison = this.title.compareToIgnoreCase(t.title);
+        comparison = this.titleKey.compareTo(t.titleKey);
         if (comparison != EQUAL) {
             return comparison;
         }
@@ -124,6 +188,26 @@ public class Song implements Comparable<Song> {
         return EQUAL;
     }
 
+    /**
+     * Compares key against prefix, only as far as the length of prefix,
+     * walking the chars in place instead of building a substring
+     *
+     * @param key
+     * @param prefix
+     * @return 0 if key starts with prefix, otherwise the usual compareTo sign
+     */
+    static int comparePrefix(String key, String prefix) {
+        int n = Math.min(key.length(), prefix.length());
+        for (int i = 0; i < n; i++) {
+            int diff = key.charAt(i) - prefix.charAt(i);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        // key is shorter than the prefix it matched so far, it comes first
+        return key.length() < prefix.length() ? -1 : 0;
+    }
+
     /**
      * Compares two Songs and counts the number of comparisons
      */
@@ -154,16 +238,8 @@ public class Song implements Comparable<Song> {
         @Override
         public int compare(Song s1, Song s2) {
             cmpCnt++;
-            String str1;
             //System.out.println(s1.artist + " being compared to " + s2.artist); // debugging
-            if (s2.artist.length() <= s1.artist.length()) {
-                str1 = s1.artist.toLowerCase().substring(0, s2.artist.length());
-                //return s1.artist.compareToIgnoreCase(s2.artist); //returns integer returned by compareTo
-                return str1.compareTo(s2.artist);
-            } else {
-                str1 = s1.artist;
-            }
-            return str1.compareTo(s2.artist);
+            return comparePrefix(s1.artistKey, s2.artistKey);
         }
     }
     
@@ -190,17 +266,39 @@ public class Song implements Comparable<Song> {
         @Override
         public int compare(Song s1, Song s2) {
             cmpCnt++;
-            String str1;
             //System.out.println(s1.title + " being compared to " + s2.title); // debugging
-            if (s2.title.length() <= s1.title.length()) {
-                str1 = s1.title.toLowerCase().substring(0, s2.title.length());
-                //return s1.artist.compareToIgnoreCase(s2.artist); //returns integer returned by compareTo
-                return str1.compareToIgnoreCase(s2.title);
-            } else {
-                str1 = s1.title;
-            }
-            return str1.compareToIgnoreCase(s2.title);
-            //return s1.getTitle().compareToIgnoreCase(s2.getTitle());
+            return comparePrefix(s1.titleKey, s2.titleKey);
+        }
+    }
+
+    /**
+     * Compares two full titles ignoring case, then the artists for songs with
+     * the same title. Unlike CompareTitle this is a total order, so it can be
+     * used to sort the songs by title, and a song added later goes in the same
+     * place it would have been sorted into
+     */
+    public static class CompareFullTitle implements Comparator<Song>, CmpCnt {
+        int cmpCnt;
+
+        CompareFullTitle() {
+            cmpCnt = 0;
+        }
+
+        @Override
+        public int getCmpCnt() {
+            return cmpCnt;
+        }
+
+        @Override
+        public void resetCmpCnt() {
+            this.cmpCnt = 0;
+        }
+
+        @Override
+        public int compare(Song s1, Song s2) {
+            cmpCnt++;
+            int comparison = s1.titleKey.compareTo(s2.titleKey);
+            return comparison != 0 ? comparison : s1.artistKey.compareTo(s2.artistKey);
         }
     }
 
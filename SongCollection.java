@@ -0,0 +1,132 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/*
+ * CSCI 290
+ * Project1
+ * @author David Heywood
+ * Description: SongCollection reads a song file and holds the songs in a
+ * sorted array
+ */
+public class SongCollection {
+
+    private Song[] songs;
+
+    /**
+     * reads all the songs in the file
+     *
+     * @param filename the song file, such as allSongs.txt
+     * @throws IOException if the file can not be opened or read
+     */
+    public SongCollection(String filename) throws IOException {
+        this(filename, null);
+    }
+
+    /**
+     * reads the songs one at a time, keeping their lyrics off the heap in the
+     * store
+     *
+     * @param filename the song file, such as allSongs.txt
+     * @param lyricsStore where the lyrics are kept, null to keep them as Strings
+     * @throws IOException if the file can not be opened or read
+     */
+    public SongCollection(String filename, LyricsStore lyricsStore) throws IOException {
+        ArrayList<Song> songList = new ArrayList<Song>();
+        try (SongReader reader = new SongReader(filename, lyricsStore)) {
+            while (reader.hasNext()) {
+                songList.add(reader.next());
+            }
+        } catch (UncheckedIOException ex) {
+            // the reader can only throw unchecked from next, give the caller the IOException
+            throw ex.getCause();
+        }
+        songs = songList.toArray(new Song[songList.size()]);
+        // sort by artist then title, the searches depend on this order
+        Arrays.sort(songs);
+    }
+
+    /**
+     * @param songs songs that were already read, they are sorted in place
+     */
+    public SongCollection(Song[] songs) {
+        this.songs = songs;
+        Arrays.sort(this.songs);
+    }
+
+    /**
+     * add a song in its sorted place. The array is replaced rather than
+     * changed, so arrays already returned by getAllSongs stay as they were
+     *
+     * @param song
+     */
+    public void addSong(Song song) {
+        int pos = upperBound(song);
+        Song[] more = new Song[songs.length + 1];
+        System.arraycopy(songs, 0, more, 0, pos);
+        more[pos] = song;
+        System.arraycopy(songs, pos, more, pos + 1, songs.length - pos);
+        songs = more;
+    }
+
+    /**
+     * remove a song, the array is replaced as in addSong
+     *
+     * @param song the song object to remove, not just one with the same artist and title
+     * @return true if the song was in the collection
+     */
+    public boolean removeSong(Song song) {
+        // the song is among those that compare equal to it, just before the upper bound
+        for (int i = upperBound(song) - 1; i >= 0 && songs[i].compareTo(song) == 0; i--) {
+            if (songs[i] == song) {
+                Song[] fewer = new Song[songs.length - 1];
+                System.arraycopy(songs, 0, fewer, 0, i);
+                System.arraycopy(songs, i + 1, fewer, i, songs.length - i - 1);
+                songs = fewer;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // index of the first song after song in the sort order
+    private int upperBound(Song song) {
+        int lo = 0;
+        int hi = songs.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (songs[mid].compareTo(song) <= 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * this is used as the data source for building other data structures
+     *
+     * @return all the songs sorted by artist then title
+     */
+    public Song[] getAllSongs() {
+        return songs;
+    }
+
+    /**
+     * testing routine
+     *
+     * @param args the song file, allSongs.txt if none given
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        String filename = args.length > 0 ? args[0] : "allSongs.txt";
+        SongCollection sc = new SongCollection(filename);
+        Song[] list = sc.getAllSongs();
+        System.out.println("Total songs = " + list.length + ", first songs:");
+        for (int i = 0; i < Math.min(10, list.length); i++) {
+            System.out.println(list[i]);
+        }
+    }
+}
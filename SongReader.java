@@ -0,0 +1,150 @@
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads songs one at a time from a song file such as allSongs.txt.
+ *
+ * Each record is three fields, the lyrics may be many lines and end with a
+ * line holding just the closing quote:
+ *   ARTIST="..."
+ *   TITLE="..."
+ *   LYRICS="...
+ *   ..."
+ *
+ * The file is read through a fixed size buffer on a FileChannel, so only the
+ * record being parsed is held in memory and a catalog of any size can be read.
+ *
+ * @author David Heywood
+ */
+public class SongReader implements Iterator<Song>, Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final BufferedReader in;
+    private final LyricsStore lyricsStore;  // null to keep the lyrics as Strings
+    private Song nextSong;  // read ahead so hasNext can tell if there is one
+
+    /**
+     * open a UTF-8 song file, bad bytes are replaced rather than failing the read
+     *
+     * @param fileName
+     * @throws IOException
+     */
+    public SongReader(String fileName) throws IOException {
+        this(fileName, StandardCharsets.UTF_8, null);
+    }
+
+    /**
+     * open a UTF-8 song file, the songs keep their lyrics in the store
+     *
+     * @param fileName
+     * @param lyricsStore where the lyrics are kept, null to keep them as Strings
+     * @throws IOException
+     */
+    public SongReader(String fileName, LyricsStore lyricsStore) throws IOException {
+        this(fileName, StandardCharsets.UTF_8, lyricsStore);
+    }
+
+    /**
+     * @param fileName
+     * @param charset encoding of the file
+     * @param lyricsStore where the lyrics are kept, null to keep them as Strings
+     * @throws IOException
+     */
+    public SongReader(String fileName, Charset charset, LyricsStore lyricsStore) throws IOException {
+        this.lyricsStore = lyricsStore;
+        FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        in = new BufferedReader(Channels.newReader(channel, decoder, BUFFER_SIZE), BUFFER_SIZE);
+        nextSong = readSong();
+    }
+
+    /**
+     * @return true if there is another song in the file
+     */
+    @Override
+    public boolean hasNext() {
+        return nextSong != null;
+    }
+
+    /**
+     * @return the next song in file order
+     * @throws UncheckedIOException if the file can not be read
+     */
+    @Override
+    public Song next() {
+        if (nextSong == null) {
+            throw new NoSuchElementException();
+        }
+        Song song = nextSong;
+        try {
+            nextSong = readSong();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return song;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * parse the next record, lines that are not part of a record are skipped
+     *
+     * @return the song, or null at the end of the file
+     */
+    private Song readSong() throws IOException {
+        String artist = null;
+        String title = null;
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.startsWith("ARTIST=\"")) {
+                artist = quoted(line, "ARTIST=\"".length());
+            } else if (line.startsWith("TITLE=\"")) {
+                title = quoted(line, "TITLE=\"".length());
+            } else if (line.startsWith("LYRICS=\"")) {
+                String lyrics = readLyrics(line.substring("LYRICS=\"".length()));
+                artist = artist == null ? "" : artist;
+                title = title == null ? "" : title;
+                if (lyricsStore != null) {
+                    return new Song(artist, title, lyrics, lyricsStore);
+                }
+                return new Song(artist, title, lyrics);
+            }
+        }
+        return null;
+    }
+
+    // the value of a one line field, up to the last quote on the line
+    private static String quoted(String line, int start) {
+        int end = line.lastIndexOf('"');
+        return end >= start ? line.substring(start, end) : line.substring(start);
+    }
+
+    // lyrics run up to a line that is just the closing quote, each line keeps its newline
+    private String readLyrics(String firstLine) throws IOException {
+        StringBuilder lyrics = new StringBuilder();
+        String line = firstLine;
+        while (line != null && !line.equals("\"")) {
+            lyrics.append(line).append('\n');
+            line = in.readLine();
+        }
+        return lyrics.toString();
+    }
+}
@@ -0,0 +1,236 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * All the searches over one song collection, kept together so they can be
+ * saved to and loaded from a snapshot as one unit.
+ *
+ * Nothing is changed by a search, so one SongSearch can be shared by any
+ * number of threads. Songs can be added and removed while it is in use,
+ * the indexes are updated in place rather than rebuilt. Threads that search
+ * while songs may be added or removed hold readLock() for each search,
+ * except lyrics words searches, which always see one whole version of
+ * their index and never wait for a change. Songs are put in the lyrics
+ * index after every other index and taken out of it first, so a lyrics
+ * words search only finds songs that are in the collection and the title
+ * and artist indexes when it starts.
+ *
+ * @author David Heywood
+ */
+public class SongSearch {
+
+    private final SongCollection sc;
+    private final SearchByArtistPrefix byArtist;
+    private final SearchByTitlePrefix byTitle;
+    private final SearchByLyricsWords byLyricsWords;
+    private SearchByLyricsPhrase byLyricsPhrase; // built the first time it is needed
+    private File songFile; // the file the songs were read from, null if they were not
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile long version; // counts the changes to the songs
+
+    /**
+     * builds every search from the songs
+     *
+     * @param sc
+     */
+    public SongSearch(SongCollection sc) {
+        this.sc = sc;
+        byArtist = new SearchByArtistPrefix(sc);
+        byTitle = new SearchByTitlePrefix(sc);
+        byLyricsWords = new SearchByLyricsWords(sc);
+    }
+
+    /**
+     * uses structures that were already built, such as from a snapshot
+     *
+     * @param sc
+     * @param songsByTitle the songs sorted by Song.CompareFullTitle
+     * @param lyricsIndex index built from sc's songs
+     */
+    SongSearch(SongCollection sc, Song[] songsByTitle, LyricsIndex lyricsIndex) {
+        this.sc = sc;
+        byArtist = new SearchByArtistPrefix(sc);
+        byTitle = new SearchByTitlePrefix(sc, songsByTitle);
+        byLyricsWords = new SearchByLyricsWords(sc, lyricsIndex);
+    }
+
+    /**
+     * load from the snapshot file if it is there and valid, otherwise read the song file, build everything and save
+     * a new snapshot
+     *
+     * @param songFile such as allSongs.txt
+     * @param snapshotFile where the snapshot is kept
+     * @return the searches
+     * @throws IOException if the snapshot can not be used and the song file can not be read
+     */
+    public static SongSearch load(String songFile, String snapshotFile) throws IOException {
+        File snapshot = new File(snapshotFile);
+        File source = new File(songFile);
+        try {
+            if (snapshot.exists()) {
+                SongSearch ss = SongSearchSnapshot.read(snapshot, source);
+                if (ss != null) {
+                    ss.songFile = source;
+                    return ss;
+                }
+                System.out.println("Snapshot " + snapshotFile + " is not valid or " + songFile
+                        + " has changed, rebuilding it.");
+            }
+        } catch (IOException ex) {
+            System.out.println("Could not read snapshot " + snapshotFile + ": " + ex.getMessage());
+        }
+
+        SongSearch ss = new SongSearch(new SongCollection(songFile));
+        ss.songFile = source;
+        try {
+            ss.save(snapshotFile);
+        } catch (IOException ex) {
+            System.out.println("Could not save snapshot " + snapshotFile + ": " + ex.getMessage());
+        }
+        return ss;
+    }
+
+    /**
+     * save a snapshot of the songs and the title and lyrics indexes, if they were loaded from a song file the
+     * snapshot is only used while that file is unchanged
+     *
+     * @param snapshotFile
+     * @throws IOException
+     */
+    public void save(String snapshotFile) throws IOException {
+        lock.readLock().lock();
+        try {
+            SongSearchSnapshot.write(this, songFile, new File(snapshotFile));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * add a song to the collection and to every index, searches that start after this returns find it
+     *
+     * @param song
+     */
+    public void addSong(Song song) {
+        // reading the lyrics words is the slow part, it needs no lock so it does not hold up the searches
+        SearchByLyricsWords.Prepared prepared = byLyricsWords.prepare(song);
+        lock.writeLock().lock();
+        try {
+            sc.addSong(song);
+            byTitle.addSong(song);
+            SearchByLyricsPhrase phrases = builtPhraseSearch();
+            if (phrases != null) {
+                phrases.addSong(song);
+            }
+            byLyricsWords.addSong(prepared);
+            changed();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * remove a song from the collection and from every index
+     *
+     * @param song the song object to remove, such as one returned by a search
+     * @return true if the song was there
+     * @throws IllegalStateException if the song was in the collection but missing from an index, which means the
+     *     indexes no longer match the collection
+     */
+    public boolean removeSong(Song song) {
+        lock.writeLock().lock();
+        try {
+            boolean inLyrics = byLyricsWords.removeSong(song);
+            if (!sc.removeSong(song)) {
+                if (inLyrics) {
+                    throw new IllegalStateException(song + " was in the lyrics index but not in the collection");
+                }
+                return false;
+            }
+            boolean inTitles = byTitle.removeSong(song);
+            SearchByLyricsPhrase phrases = builtPhraseSearch();
+            boolean inPhrases = phrases == null || phrases.removeSong(song);
+            changed();
+            if (!inTitles || !inLyrics || !inPhrases) {
+                throw new IllegalStateException(song + " was in the collection but not in the "
+                        + (!inTitles ? "title" : !inLyrics ? "lyrics" : "phrase") + " index");
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // called holding the write lock
+    private void changed() {
+        version++;
+    }
+
+    // the phrase search if it has been built, it is kept up to date from then on
+    private synchronized SearchByLyricsPhrase builtPhraseSearch() {
+        return byLyricsPhrase;
+    }
+
+    /**
+     * hold this while searching if songs may be added or removed at the same time
+     *
+     * @return the read lock
+     */
+    public Lock readLock() {
+        return lock.readLock();
+    }
+
+    /**
+     * @return a number that changes every time a song is added or removed, so cached results can be dropped
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public SongCollection getSongCollection() {
+        return sc;
+    }
+
+    public SearchByArtistPrefix getArtistSearch() {
+        return byArtist;
+    }
+
+    public SearchByTitlePrefix getTitleSearch() {
+        return byTitle;
+    }
+
+    public SearchByLyricsWords getLyricsWordsSearch() {
+        return byLyricsWords;
+    }
+
+    /**
+     * the phrase index is not in the snapshot, it is built on first use and songs added or removed after that are
+     * added to it or removed from it, it is not built again
+     *
+     * @return the phrase search
+     */
+    public synchronized SearchByLyricsPhrase getLyricsPhraseSearch() {
+        if (byLyricsPhrase == null) {
+            byLyricsPhrase = new SearchByLyricsPhrase(sc);
+        }
+        return byLyricsPhrase;
+    }
+
+    /**
+     * Testing routine, times a cold start from the snapshot
+     *
+     * @param args song file and snapshot file
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        String songFile = args.length > 0 ? args[0] : "allSongs.txt";
+        String snapshotFile = args.length > 1 ? args[1] : "allSongs.snapshot";
+        long start = System.currentTimeMillis();
+        SongSearch ss = SongSearch.load(songFile, snapshotFile);
+        System.out.println("Loaded " + ss.getSongCollection().getAllSongs().length + " songs in "
+                + (System.currentTimeMillis() - start) + " ms");
+        System.out.println("Lyrics words \"love baby\": " + ss.getLyricsWordsSearch().search("love baby").length);
+    }
+}
@@ -0,0 +1,376 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A small HTTP server for the searches. One shared SongSearch answers every
+ * request, which is safe because searching does not change it.
+ *
+ * Requests look like
+ *   GET /search?type=title&q=angel&page=0&size=10
+ * where type is title, artist, words, query or phrase. The reply is JSON
+ * with the total number of matches and one page of songs, phrase matches
+ * also have their rank and come closest match first. A query is a
+ * LyricsQuery, such as q=love AND (heart OR night) NOT artist:beatles.
+ *
+ * Type-ahead requests look like
+ *   GET /complete?type=title&q=ang&size=10&order=popularity
+ * where type is title, artist or term and order is popularity or
+ * alphabetical. The reply is JSON with up to size completions. Nothing is
+ * kept between requests, so each one finds its whole prefix rather than
+ * narrowing the range of the previous keystroke as an Autocomplete.Session
+ * does.
+ *
+ * Each request runs on its own virtual thread when the JVM has them (Java
+ * 21 and later), otherwise on a pool of platform threads. At most
+ * maxConcurrent searches run at once, a request that can not start within
+ * a second gets 503 so a flood of clients queues briefly instead of piling
+ * up without limit. The platform pool has twice maxConcurrent threads, so
+ * the ones over the limit wait for a search to finish, and a short queue
+ * in front of them. A request that finds the pool and the queue full is
+ * turned away and its connection is closed.
+ *
+ * A bad request gets 400, any other failure in a search gets 500.
+ *
+ * @author David Heywood
+ */
+public class SongSearchServer {
+
+    private static final int DEFAULT_PAGE_SIZE = 10;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final long PERMIT_WAIT_MS = 1000;
+
+    private final SongSearch songSearch;
+    private final Autocomplete autocomplete;
+    private final Semaphore permits;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * @param songSearch the searches to serve
+     * @param port 0 to pick a free port
+     * @param maxConcurrent most searches running at once
+     * @throws IOException if the port can not be bound
+     */
+    public SongSearchServer(SongSearch songSearch, int port, int maxConcurrent) throws IOException {
+        this.songSearch = songSearch;
+        autocomplete = new Autocomplete(songSearch);
+        permits = new Semaphore(maxConcurrent);
+        executor = newExecutor(maxConcurrent);
+        // a deep accept backlog so thousands of clients can connect at once
+        server = HttpServer.create(new InetSocketAddress(port), 4096);
+        server.createContext("/search", this::handle);
+        server.createContext("/complete", this::handle);
+        server.setExecutor(executor);
+    }
+
+    /**
+     * virtual threads are looked up by reflection so this still builds and
+     * runs on Java 17, where a bounded pool of platform threads is used. Its
+     * queue is bounded too, so no request waits in it without limit
+     */
+    private static ExecutorService newExecutor(int maxConcurrent) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            int threads = 2 * maxConcurrent;
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(maxConcurrent), new ThreadPoolExecutor.AbortPolicy());
+            pool.allowCoreThreadTimeOut(true);
+            return pool;
+        }
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * stop taking requests, waits up to delay seconds for running ones
+     *
+     * @param delay
+     */
+    public void stop(int delay) {
+        server.stop(delay);
+        executor.shutdown();
+    }
+
+    /**
+     * @return the port the server is listening on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                reply(exchange, 405, error("only GET is supported"));
+                return;
+            }
+            boolean acquired = false;
+            try {
+                acquired = permits.tryAcquire(PERMIT_WAIT_MS, TimeUnit.MILLISECONDS);
+                if (!acquired) {
+                    reply(exchange, 503, error("server busy"));
+                    return;
+                }
+                HashMap<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+                if (params == null) {
+                    reply(exchange, 400, error("bad % escape in the request"));
+                    return;
+                }
+                String type = params.getOrDefault("type", "");
+                String query = params.get("q");
+                int page = intParam(params, "page", 0);
+                int size = intParam(params, "size", DEFAULT_PAGE_SIZE);
+                if (query == null || query.isEmpty() || page < 0 || size < 1 || size > MAX_PAGE_SIZE) {
+                    reply(exchange, 400, error("need q, page >= 0 and 1 <= size <= " + MAX_PAGE_SIZE));
+                    return;
+                }
+                String result;
+                if (exchange.getRequestURI().getPath().equals("/complete")) {
+                    result = complete(type, query, size, params.getOrDefault("order", "popularity"));
+                    if (result == null) {
+                        reply(exchange, 400, error("type must be title, artist or term, "
+                                + "order popularity or alphabetical"));
+                        return;
+                    }
+                } else if (type.equals("words") || type.equals("query")) { // one version of the index, no lock
+                    result = search(type, query, page, size);
+                } else {
+                    songSearch.readLock().lock(); // songs may be added or removed while serving
+                    try {
+                        result = search(type, query, page, size);
+                    } finally {
+                        songSearch.readLock().unlock();
+                    }
+                }
+                if (result == null) {
+                    reply(exchange, 400, error("type must be title, artist, words, query or phrase"));
+                    return;
+                }
+                reply(exchange, 200, result);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                reply(exchange, 503, error("interrupted"));
+            } catch (NumberFormatException ex) {
+                reply(exchange, 400, error("page and size must be numbers"));
+            } catch (LyricsQuery.SyntaxException ex) { // a query that is not well formed
+                reply(exchange, 400, error(ex.getMessage()));
+            } catch (RuntimeException ex) {
+                System.out.println("Error serving " + exchange.getRequestURI() + ": " + ex);
+                reply(exchange, 500, error("internal error"));
+            } finally {
+                if (acquired) {
+                    permits.release();
+                }
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * run one search and format one page of it
+     *
+     * @return the JSON reply, null if the type is not known
+     */
+    String search(String type, String query, int page, int size) {
+        int start = (int) Math.min(Integer.MAX_VALUE, (long) page * size);
+        StringBuilder json = new StringBuilder();
+        int total;
+        int count = 0;
+        switch (type) {
+            case "title": {
+                // the views page through the index without copying every match
+                RaggedArrayList<Song>.SubListView view = songSearch.getTitleSearch().searchView(query);
+                Song[] songs = new Song[size];
+                total = view.size();
+                count = view.page(start, songs);
+                startReply(json, type, query, page, size, total);
+                for (int i = 0; i < count; i++) {
+                    appendSong(json, songs[i], -1, i);
+                }
+                break;
+            }
+            case "artist": {
+                List<Song> view = songSearch.getArtistSearch().searchView(query);
+                total = view.size();
+                startReply(json, type, query, page, size, total);
+                for (int i = start; i < Math.min(total, start + size); i++) {
+                    appendSong(json, view.get(i), -1, count++);
+                }
+                break;
+            }
+            case "words": {
+                Song[] songs = songSearch.getLyricsWordsSearch().search(query);
+                total = songs.length;
+                startReply(json, type, query, page, size, total);
+                for (int i = start; i < Math.min(total, start + size); i++) {
+                    appendSong(json, songs[i], -1, count++);
+                }
+                break;
+            }
+            case "query": {
+                Song[] songs = songSearch.getLyricsWordsSearch().query(query);
+                total = songs.length;
+                startReply(json, type, query, page, size, total);
+                for (int i = start; i < Math.min(total, start + size); i++) {
+                    appendSong(json, songs[i], -1, count++);
+                }
+                break;
+            }
+            case "phrase": {
+                SearchByLyricsPhrase.Match[] matches = songSearch.getLyricsPhraseSearch().rankedSearch(query);
+                total = matches.length;
+                startReply(json, type, query, page, size, total);
+                for (int i = start; i < Math.min(total, start + size); i++) {
+                    appendSong(json, matches[i].getSong(), matches[i].getRank(), count++);
+                }
+                break;
+            }
+            default:
+                return null;
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * complete a prefix
+     *
+     * @return the JSON reply, null if the type or order is not known
+     */
+    String complete(String type, String prefix, int size, String order) {
+        Autocomplete.Field field;
+        Autocomplete.Order rank;
+        try {
+            field = Autocomplete.Field.valueOf(type.toUpperCase());
+            rank = Autocomplete.Order.valueOf(order.toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+        // no Session, each request finds the whole prefix. A dictionary that is out of date is built again in the
+        // background and answers until the new one is ready
+        String[] completions = autocomplete.complete(field, prefix, size, rank);
+        StringBuilder json = new StringBuilder("{\"type\":");
+        appendString(json, type);
+        json.append(",\"query\":");
+        appendString(json, prefix);
+        json.append(",\"completions\":[");
+        for (int i = 0; i < completions.length; i++) {
+            json.append(i > 0 ? "," : "");
+            appendString(json, completions[i]);
+        }
+        return json.append("]}").toString();
+    }
+
+    private static void startReply(StringBuilder json, String type, String query, int page, int size, int total) {
+        json.append("{\"type\":");
+        appendString(json, type);
+        json.append(",\"query\":");
+        appendString(json, query);
+        json.append(",\"total\":").append(total)
+                .append(",\"page\":").append(page)
+                .append(",\"size\":").append(size)
+                .append(",\"songs\":[");
+    }
+
+    // rank is -1 for searches that are not ranked
+    private static void appendSong(StringBuilder json, Song song, int rank, int index) {
+        json.append(index > 0 ? ",{" : "{").append("\"artist\":");
+        appendString(json, song.getArtist());
+        json.append(",\"title\":");
+        appendString(json, song.getTitle());
+        if (rank >= 0) {
+            json.append(",\"rank\":").append(rank);
+        }
+        json.append('}');
+    }
+
+    private static void appendString(StringBuilder json, String str) {
+        json.append('"');
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+    private static String error(String message) {
+        StringBuilder json = new StringBuilder("{\"error\":");
+        appendString(json, message);
+        return json.append('}').toString();
+    }
+
+    private static void reply(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    // null if a % escape is not valid
+    private static HashMap<String, String> parseQuery(String rawQuery) throws UnsupportedEncodingException {
+        HashMap<String, String> params = new HashMap<String, String>();
+        if (rawQuery == null) {
+            return params;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            try {
+                params.put(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+            } catch (IllegalArgumentException ex) {
+                return null;
+            }
+        }
+        return params;
+    }
+
+    private static int intParam(HashMap<String, String> params, String name, int defaultValue) {
+        String value = params.get(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    /**
+     * Starts a server
+     *
+     * @param args port, song file, snapshot file, most concurrent searches
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        String songFile = args.length > 1 ? args[1] : "allSongs.txt";
+        String snapshotFile = args.length > 2 ? args[2] : "allSongs.snapshot";
+        int maxConcurrent = args.length > 3 ? Integer.parseInt(args[3]) : 256;
+
+        SongSearch ss = SongSearch.load(songFile, snapshotFile);
+        ss.getLyricsPhraseSearch(); // build it now rather than on the first phrase request
+        SongSearchServer server = new SongSearchServer(ss, port, maxConcurrent);
+        server.start();
+        System.out.println("Serving " + ss.getSongCollection().getAllSongs().length + " songs on port "
+                + server.getPort() + ", at most " + maxConcurrent + " searches at once");
+    }
+}
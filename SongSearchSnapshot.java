@@ -0,0 +1,206 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Saves the whole SongSearch state to one binary file and loads it back with a
+ * single memory map, so a cold start does not read the song text file, sort
+ * or tokenize anything.
+ *
+ * File layout, counts are varints unless noted:
+ *   magic (int), version (int)
+ *   the song file it was made from: byte length (long), last modified time
+ *     in milliseconds (long), both -1 if the songs did not come from a file
+ *   string table: number of strings, then each as byte length and UTF-8 bytes,
+ *     artists and titles are stored once no matter how many songs share them
+ *   songs in SongCollection order: artist string, title string, lyrics byte length
+ *   lyrics: the UTF-8 lyrics of every song, one after the other
+ *   title order: the song IDs in title order, as in the RaggedArrayList
+ *   lyrics index: byte length, then the LyricsIndexFile layout
+ *   CRC32 of everything before it (long)
+ *
+ * The lyrics and the posting lists are left in the mapped file, songs decode
+ * their lyrics through a LyricsStore over it. A snapshot is only used if the
+ * song file still has the length and time it had when the snapshot was made,
+ * so editing or replacing the song file makes the next load rebuild.
+ *
+ * @author David Heywood
+ */
+public class SongSearchSnapshot {
+
+    private static final int MAGIC = 0x53534E50; // "SSNP"
+    private static final int VERSION = 4; // 2 has version 2 of the lyrics index, 3 has version 3, 4 the song file
+    private static final int HEADER_BYTES = 24;
+
+    /**
+     * Write a snapshot, it is written to a temporary file first and renamed
+     *
+     * @param ss the searches to save
+     * @param source the song file the songs were read from, null if they were not read from a file
+     * @param file
+     * @throws IOException
+     */
+    public static void write(SongSearch ss, File source, File file) throws IOException {
+        Song[] songs = ss.getSongCollection().getAllSongs();
+        IdentityHashMap<Song, Integer> songIds = new IdentityHashMap<Song, Integer>();
+        for (int id = 0; id < songs.length; id++) {
+            songIds.put(songs[id], id);
+        }
+
+        // intern the artists and titles
+        HashMap<String, Integer> stringIds = new HashMap<String, Integer>();
+        ArrayList<String> strings = new ArrayList<String>();
+        int[] artistIds = new int[songs.length];
+        int[] titleIds = new int[songs.length];
+        for (int id = 0; id < songs.length; id++) {
+            artistIds[id] = intern(songs[id].getArtist(), stringIds, strings);
+            titleIds[id] = intern(songs[id].getTitle(), stringIds, strings);
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (OutputStream fileOut = new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16)) {
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(fileOut, crc));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(source == null ? -1 : source.length());
+            out.writeLong(source == null ? -1 : source.lastModified());
+
+            LyricsIndexFile.writeVarint(out, strings.size());
+            for (String str : strings) {
+                byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+                LyricsIndexFile.writeVarint(out, bytes.length);
+                out.write(bytes);
+            }
+
+            // lyrics are encoded twice, for their lengths then their bytes, rather than holding them all
+            LyricsIndexFile.writeVarint(out, songs.length);
+            for (int id = 0; id < songs.length; id++) {
+                LyricsIndexFile.writeVarint(out, artistIds[id]);
+                LyricsIndexFile.writeVarint(out, titleIds[id]);
+                LyricsIndexFile.writeVarint(out, songs[id].getLyrics().getBytes(StandardCharsets.UTF_8).length);
+            }
+            for (int id = 0; id < songs.length; id++) {
+                out.write(songs[id].getLyrics().getBytes(StandardCharsets.UTF_8));
+            }
+
+            for (Song song : ss.getTitleSearch().getSongsByTitle()) {
+                LyricsIndexFile.writeVarint(out, songIds.get(song));
+            }
+
+            ByteArrayOutputStream index = new ByteArrayOutputStream();
+            // after songs are added or removed the index IDs are not the collection order, renumber them
+            // the snapshot's own checksum covers the songs along with the index, so the index has no fingerprint
+            LyricsIndexFile.writeTo(ss.getLyricsWordsSearch().getLyricsIndex(songs), songs.length, 0, index);
+            LyricsIndexFile.writeVarint(out, index.size());
+            index.writeTo(out);
+            out.flush();
+
+            // the checksum itself is not part of what it checks
+            new DataOutputStream(fileOut).writeLong(crc.getValue());
+        }
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file)) {
+                throw new IOException("could not rename " + tmp + " to " + file);
+            }
+        }
+    }
+
+    private static int intern(String str, HashMap<String, Integer> stringIds, ArrayList<String> strings) {
+        Integer id = stringIds.get(str);
+        if (id == null) {
+            id = strings.size();
+            stringIds.put(str, id);
+            strings.add(str);
+        }
+        return id;
+    }
+
+    /**
+     * Load a snapshot
+     *
+     * @param file
+     * @param source the song file the snapshot must have been made from, null if its songs were not read from a file
+     * @return the searches, or null if the file is not a snapshot of this version, fails its checksum or the song
+     *     file has changed since it was made
+     * @throws IOException
+     */
+    public static SongSearch read(File file, File source) throws IOException {
+        MappedByteBuffer buf;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+                FileChannel channel = raf.getChannel()) {
+            if (channel.size() < HEADER_BYTES + 8 || channel.size() > Integer.MAX_VALUE) {
+                return null;
+            }
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        int end = buf.limit() - 8;
+        CRC32 crc = new CRC32();
+        crc.update(buf.duplicate().limit(end));
+        if (crc.getValue() != buf.getLong(end) || buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+            return null;
+        }
+        if (buf.getLong(8) != (source == null ? -1 : source.length())
+                || buf.getLong(16) != (source == null ? -1 : source.lastModified())) {
+            return null;
+        }
+
+        int[] pos = {HEADER_BYTES};
+        String[] strings = new String[LyricsIndexFile.readVarint(buf, pos)];
+        for (int i = 0; i < strings.length; i++) {
+            int length = LyricsIndexFile.readVarint(buf, pos);
+            byte[] bytes = new byte[length];
+            buf.get(pos[0], bytes);
+            pos[0] += length;
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        int numSongs = LyricsIndexFile.readVarint(buf, pos);
+        int[] artistIds = new int[numSongs];
+        int[] titleIds = new int[numSongs];
+        int[] lyricsLengths = new int[numSongs];
+        long lyricsBytes = 0;
+        for (int id = 0; id < numSongs; id++) {
+            artistIds[id] = LyricsIndexFile.readVarint(buf, pos);
+            titleIds[id] = LyricsIndexFile.readVarint(buf, pos);
+            lyricsLengths[id] = LyricsIndexFile.readVarint(buf, pos);
+            lyricsBytes += lyricsLengths[id];
+        }
+
+        // the songs decode their lyrics straight out of the mapped file
+        LyricsStore store = new LyricsStore(buf.slice(pos[0], (int) lyricsBytes));
+        Song[] songs = new Song[numSongs];
+        long offset = 0;
+        for (int id = 0; id < numSongs; id++) {
+            songs[id] = new Song(strings[artistIds[id]], strings[titleIds[id]], store, offset, lyricsLengths[id]);
+            offset += lyricsLengths[id];
+        }
+        pos[0] += (int) lyricsBytes;
+
+        Song[] byTitle = new Song[numSongs];
+        for (int i = 0; i < numSongs; i++) {
+            byTitle[i] = songs[LyricsIndexFile.readVarint(buf, pos)];
+        }
+
+        int indexLength = LyricsIndexFile.readVarint(buf, pos);
+        LyricsIndex lyricsIndex = LyricsIndexFile.read(buf.slice(pos[0], indexLength), numSongs, 0);
+        if (lyricsIndex == null) {
+            return null;
+        }
+        return new SongSearch(new SongCollection(songs), byTitle, lyricsIndex);
+    }
+}
@@ -0,0 +1,97 @@
+package songsearch;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time per keystroke of type-ahead, sampled so the percentiles are shown.
+ * Each operation types the next character of a title or artist picked from
+ * the corpus, starting on a new one when it is all typed, so prefixes of
+ * every length are measured in the proportions a user types them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AutocompleteBenchmark {
+
+    private static final int TEXTS = 1024; // a power of 2
+
+    /**
+     * number of synthetic songs, or a song file
+     */
+    @Param({"10000", "100000", "shortSongs.txt"})
+    public String corpus;
+
+    @Param({"POPULARITY", "ALPHABETICAL"})
+    public Autocomplete.Order order;
+
+    private Autocomplete autocomplete;
+    private Autocomplete.Session titleSession;
+    private Autocomplete.Session artistSession;
+    private String[] titles;
+    private String[] artists;
+    private int nextTitle;
+    private int titleTyped;
+    private int nextArtist;
+    private int artistTyped;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        SongCollection sc = Corpus.load(corpus);
+        PrintStream out = Corpus.quiet();
+        try {
+            autocomplete = new Autocomplete(new SongSearch(sc));
+        } finally {
+            System.setOut(out);
+        }
+        titleSession = autocomplete.session(Autocomplete.Field.TITLE, 10, order);
+        artistSession = autocomplete.session(Autocomplete.Field.ARTIST, 10, order);
+        Song[] songs = sc.getAllSongs();
+        Random rand = new Random(7);
+        titles = new String[TEXTS];
+        artists = new String[TEXTS];
+        for (int i = 0; i < TEXTS; i++) {
+            titles[i] = songs[rand.nextInt(songs.length)].getTitle();
+            artists[i] = songs[rand.nextInt(songs.length)].getArtist();
+        }
+    }
+
+    @Benchmark
+    public String[] titleKeystroke() {
+        String title = titles[nextTitle];
+        if (titleTyped == title.length()) {
+            nextTitle = (nextTitle + 1) & (TEXTS - 1);
+            title = titles[nextTitle];
+            titleTyped = 0;
+        }
+        return titleSession.type(title.substring(0, ++titleTyped));
+    }
+
+    @Benchmark
+    public String[] artistKeystroke() {
+        String artist = artists[nextArtist];
+        if (artistTyped == artist.length()) {
+            nextArtist = (nextArtist + 1) & (TEXTS - 1);
+            artist = artists[nextArtist];
+            artistTyped = 0;
+        }
+        return artistSession.type(artist.substring(0, ++artistTyped));
+    }
+}
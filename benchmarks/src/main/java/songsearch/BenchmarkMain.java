@@ -0,0 +1,27 @@
+package songsearch;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler always on, so every result has
+ * the allocation rate and bytes allocated per operation next to ops/sec.
+ * Takes the usual JMH command line options, for example
+ *   java -jar benchmarks/target/benchmarks.jar SearchBenchmark -p corpus=shortSongs.txt
+ *
+ * Run it from the top of the repository so commonwords.txt and
+ * shortSongs.txt are found.
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,165 @@
+package songsearch;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Song collections for the benchmarks. A corpus name that is a number makes
+ * a synthetic collection of that many songs, anything else is read as a
+ * song file such as shortSongs.txt.
+ *
+ * Synthetic songs draw their words from a fixed made up vocabulary with a
+ * Zipf like skew, so a few words are in most songs and most words are rare,
+ * like real lyrics. The same name always gives the same songs.
+ */
+final class Corpus {
+
+    private static final int VOCABULARY_SIZE = 20000;
+    private static final String[] COMMON = {"love", "you", "baby", "the", "and", "she", "loves", "my", "heart",
+        "night", "time", "never", "know", "want", "feel", "away", "girl", "come", "down", "way"};
+
+    private Corpus() {
+    }
+
+    /**
+     * @param corpus number of synthetic songs, or a song file name
+     * @return the songs, sorted as SongCollection sorts them
+     * @throws IOException if the song file can not be read
+     */
+    static SongCollection load(String corpus) throws IOException {
+        PrintStream out = quiet();
+        try {
+            if (corpus.chars().allMatch(Character::isDigit)) {
+                return new SongCollection(synthetic(Integer.parseInt(corpus), 42));
+            }
+            return new SongCollection(corpus);
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    /**
+     * @param count number of songs
+     * @param seed
+     * @return count synthetic songs, not sorted
+     */
+    static Song[] synthetic(int count, long seed) {
+        Random rand = new Random(seed);
+        String[] vocabulary = new String[VOCABULARY_SIZE];
+        System.arraycopy(COMMON, 0, vocabulary, 0, COMMON.length);
+        for (int i = COMMON.length; i < vocabulary.length; i++) {
+            vocabulary[i] = word(rand);
+        }
+        String[] artists = new String[Math.max(1, count / 20)];
+        for (int i = 0; i < artists.length; i++) {
+            artists[i] = capitalize(word(rand)) + " " + capitalize(word(rand));
+        }
+
+        Song[] songs = new Song[count];
+        StringBuilder title = new StringBuilder();
+        StringBuilder lyrics = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            title.setLength(0);
+            int titleWords = 1 + rand.nextInt(4);
+            for (int w = 0; w < titleWords; w++) {
+                if (w > 0) {
+                    title.append(' ');
+                }
+                title.append(capitalize(vocabulary[zipf(rand)]));
+            }
+            lyrics.setLength(0);
+            int lines = 8 + rand.nextInt(30);
+            for (int l = 0; l < lines; l++) {
+                int lineWords = 3 + rand.nextInt(7);
+                for (int w = 0; w < lineWords; w++) {
+                    if (w > 0) {
+                        lyrics.append(' ');
+                    }
+                    lyrics.append(vocabulary[zipf(rand)]);
+                }
+                lyrics.append('\n');
+            }
+            songs[i] = new Song(artists[rand.nextInt(artists.length)], title.toString(), lyrics.toString());
+        }
+        return songs;
+    }
+
+    /**
+     * pick query strings from the songs, so queries hit real data
+     *
+     * @param songs
+     * @param count number of queries, a power of 2
+     * @param kind "title", "artist", "words", "phrase" or "query", a query is "(a OR b) NOT c"
+     * @return the queries
+     */
+    static String[] queries(Song[] songs, int count, String kind) {
+        Random rand = new Random(7);
+        String[] queries = new String[count];
+        for (int i = 0; i < count; i++) {
+            Song song = songs[rand.nextInt(songs.length)];
+            switch (kind) {
+                case "title":
+                    queries[i] = prefix(song.getTitleKey(), rand);
+                    break;
+                case "artist":
+                    queries[i] = prefix(song.getArtistKey(), rand);
+                    break;
+                default:
+                    ArrayList<String> words = new ArrayList<String>();
+                    for (String word : LyricsIndex.words(song.getLyrics())) {
+                        if (!word.isEmpty()) {
+                            words.add(word);
+                        }
+                    }
+                    int length = kind.equals("words") ? 2 : 3;
+                    int start = rand.nextInt(Math.max(1, words.size() - length));
+                    StringBuilder query = new StringBuilder();
+                    for (int w = start; w < Math.min(words.size(), start + length); w++) {
+                        query.append(w > start ? " " : "").append(words.get(w));
+                    }
+                    queries[i] = query.toString();
+                    if (kind.equals("query") && words.size() >= 3) {
+                        String[] picked = queries[i].split(" ");
+                        queries[i] = "(" + picked[0] + " OR " + picked[1] + ") NOT " + picked[2];
+                    }
+            }
+        }
+        return queries;
+    }
+
+    /**
+     * building the searchers prints statistics, send it nowhere while they are built
+     *
+     * @return the real System.out, to put back afterwards
+     */
+    static PrintStream quiet() {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        return out;
+    }
+
+    private static String prefix(String key, Random rand) {
+        return key.isEmpty() ? "a" : key.substring(0, 1 + rand.nextInt(Math.min(3, key.length())));
+    }
+
+    // word ranks follow roughly 1/rank, so low ranks are common
+    private static int zipf(Random rand) {
+        return (int) Math.min(VOCABULARY_SIZE - 1, Math.exp(rand.nextDouble() * Math.log(VOCABULARY_SIZE)) - 1);
+    }
+
+    private static String word(Random rand) {
+        int length = 3 + rand.nextInt(6);
+        StringBuilder word = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            word.append((char) ('a' + rand.nextInt(26)));
+        }
+        return word.toString();
+    }
+
+    private static String capitalize(String word) {
+        return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+    }
+}
@@ -0,0 +1,98 @@
+package songsearch;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * RaggedArrayList on its own, with String items. add is measured as
+ * building a whole list of size items, compared with the bulk load of the
+ * same items already sorted.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RaggedArrayListBenchmark {
+
+    private static final int KEYS = 1024; // a power of 2
+
+    @Param({"1000", "100000"})
+    public int size;
+
+    @Param({"true", "false"})
+    public boolean binarySearch;
+
+    private String[] items;        // in random order
+    private String[] sortedItems;
+    private String[] keys;         // lookups, half of them are in the list
+    private RaggedArrayList<String> list;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random rand = new Random(42);
+        items = new String[size];
+        for (int i = 0; i < size; i++) {
+            items[i] = Integer.toString(rand.nextInt(size * 10), 36);
+        }
+        sortedItems = items.clone();
+        Arrays.sort(sortedItems);
+        keys = new String[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = i % 2 == 0 ? items[rand.nextInt(size)] : Integer.toString(rand.nextInt(size * 10), 36);
+        }
+        list = new RaggedArrayList<String>(new RaggedArrayList.StringCmp(), sortedItems);
+        list.setBinarySearch(binarySearch);
+    }
+
+    private String nextKey() {
+        return keys[next++ & (KEYS - 1)];
+    }
+
+    @Benchmark
+    public RaggedArrayList<String> addAll() {
+        RaggedArrayList<String> built = new RaggedArrayList<String>(new RaggedArrayList.StringCmp());
+        built.setBinarySearch(binarySearch);
+        for (String item : items) {
+            built.add(item);
+        }
+        return built;
+    }
+
+    @Benchmark
+    public RaggedArrayList<String> bulkLoad() {
+        return new RaggedArrayList<String>(new RaggedArrayList.StringCmp(), sortedItems);
+    }
+
+    @Benchmark
+    public boolean contains() {
+        return list.contains(nextKey());
+    }
+
+    @Benchmark
+    public RaggedArrayList<String> subList() {
+        String from = nextKey();
+        return list.subList(from, from + "~");
+    }
+
+    @Benchmark
+    public int subListView() {
+        String from = nextKey();
+        return list.subListView(from, from + "~").size();
+    }
+}
@@ -0,0 +1,111 @@
+package songsearch;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One benchmark per search path. Each operation is one search, cycling
+ * through queries picked from the corpus. The searches do not print, only
+ * building them does, so System.out is discarded during setup and put back
+ * before anything is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark {
+
+    private static final int QUERIES = 1024; // a power of 2
+
+    /**
+     * number of synthetic songs, or a song file
+     */
+    @Param({"10000", "100000", "shortSongs.txt"})
+    public String corpus;
+
+    private SongSearch songSearch;
+    private SearchByLyricsPhrase phraseSearch;
+    private String[] titles;
+    private String[] artists;
+    private String[] words;
+    private String[] phrases;
+    private String[] booleanQueries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        SongCollection sc = Corpus.load(corpus);
+        PrintStream out = Corpus.quiet();
+        try {
+            songSearch = new SongSearch(sc);
+            phraseSearch = songSearch.getLyricsPhraseSearch();
+        } finally {
+            System.setOut(out);
+        }
+        Song[] songs = sc.getAllSongs();
+        titles = Corpus.queries(songs, QUERIES, "title");
+        artists = Corpus.queries(songs, QUERIES, "artist");
+        words = Corpus.queries(songs, QUERIES, "words");
+        phrases = Corpus.queries(songs, QUERIES, "phrase");
+        booleanQueries = Corpus.queries(songs, QUERIES, "query");
+    }
+
+    private int nextQuery() {
+        return next++ & (QUERIES - 1);
+    }
+
+    @Benchmark
+    public Song[] artistPrefix() {
+        return songSearch.getArtistSearch().search(artists[nextQuery()]);
+    }
+
+    @Benchmark
+    public Song[] titlePrefix() {
+        return songSearch.getTitleSearch().search(titles[nextQuery()]);
+    }
+
+    @Benchmark
+    public Song[] lyricsWords() {
+        return songSearch.getLyricsWordsSearch().search(words[nextQuery()]);
+    }
+
+    @Benchmark
+    public Song[] lyricsWordsFuzzy() {
+        return songSearch.getLyricsWordsSearch().fuzzySearch(words[nextQuery()]);
+    }
+
+    @Benchmark
+    public SearchByLyricsWords.Match[] lyricsWordsTop10() {
+        return songSearch.getLyricsWordsSearch().topSearch(words[nextQuery()], 10);
+    }
+
+    @Benchmark
+    public Song[] lyricsQuery() {
+        return songSearch.getLyricsWordsSearch().query(booleanQueries[nextQuery()]);
+    }
+
+    @Benchmark
+    public Song[] lyricsPhrase() {
+        return phraseSearch.search(phrases[nextQuery()]);
+    }
+
+    @Benchmark
+    public SearchByLyricsPhrase.Match[] lyricsPhraseTop10() {
+        return phraseSearch.topSearch(phrases[nextQuery()], 10);
+    }
+}